@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning a filled batch array into the network's input NDArray: a fresh array per
+ * batch, as the functions originally did, against copying into one allocated up front.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchConstructionBenchmark {
+    @Param({ "1", "100", "1000", "10000" })
+    public int batchSize;
+
+    private double[] batch;
+    private INDArray features;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticModelState files) {
+        Random random = new Random(1234L);
+        batch = new double[batchSize * SyntheticWorkload.VECTOR_LENGTH];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = random.nextInt(files.vocabularySize + 1);
+        }
+        features = Nd4j.create(DataType.DOUBLE, batchSize, SyntheticWorkload.VECTOR_LENGTH);
+    }
+
+    @Benchmark
+    public INDArray create() {
+        return Nd4j.create(batch, new long[] { batchSize, SyntheticWorkload.VECTOR_LENGTH }, 'c');
+    }
+
+    @Benchmark
+    public INDArray reuse() {
+        features.data().setData(batch);
+        return features;
+    }
+}
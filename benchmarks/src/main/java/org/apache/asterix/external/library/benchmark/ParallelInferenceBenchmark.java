@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.parallelism.ParallelInference;
+import org.deeplearning4j.parallelism.inference.InferenceMode;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Raw network throughput through ParallelInference in BATCHED mode, for the batch sizes the
+ * functions produce and a range of worker counts. Compare against the function benchmarks to
+ * see how much of a call is spent outside the network.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelInferenceBenchmark {
+    @Param({ "1", "100", "1000", "10000" })
+    public int batchSize;
+
+    @Param({ "1", "2", "4" })
+    public int workers;
+
+    private ParallelInference piModel;
+    private INDArray features;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticModelState files) throws Exception {
+        boolean loadUpdater = false;
+        MultiLayerNetwork net = MultiLayerNetwork.load(files.modelFile, loadUpdater);
+        piModel = new ParallelInference.Builder(net)
+            .inferenceMode(InferenceMode.BATCHED)
+            .batchLimit(15000)
+            .workers(workers)
+            .build();
+
+        Random random = new Random(1234L);
+        double[] batch = new double[batchSize * SyntheticWorkload.VECTOR_LENGTH];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = random.nextInt(files.vocabularySize + 1);
+        }
+        features = Nd4j.create(batch, new long[] { batchSize, SyntheticWorkload.VECTOR_LENGTH }, 'c');
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        piModel.shutdown();
+    }
+
+    @Benchmark
+    public INDArray output() {
+        return piModel.output(features);
+    }
+}
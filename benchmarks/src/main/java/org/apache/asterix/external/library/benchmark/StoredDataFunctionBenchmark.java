@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.asterix.external.library.StoredDataLSTMSentimentFunction;
+import org.apache.asterix.external.library.java.base.JOrderedList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One evaluate() of StoredDataLSTMSentimentFunction over a list of stored tweets, end to end:
+ * reading the records, vectorization, inference and writing the sentiments back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StoredDataFunctionBenchmark {
+    @Param({ "1000", "10000", "50000" })
+    public int recordsPerCall;
+
+    @Param({ "10000" })
+    public int chunkSize;
+
+    @Param({ "0", "5" })
+    public int lengthBucketWidth;
+
+    private StoredDataLSTMSentimentFunction function;
+    private StubFunctionHelper stub;
+    private SyntheticWorkload workload;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticModelState files) throws Exception {
+        workload = files.newWorkload();
+        stub = StubFunctionHelper.create(
+                files.functionParameters("chunkSize=" + chunkSize + ",lengthBucketWidth=" + lengthBucketWidth));
+        function = new StoredDataLSTMSentimentFunction();
+        function.initialize(stub.helper());
+    }
+
+    // Fresh tweets every call, so repeats are only the workload's own retweets
+    @Setup(Level.Invocation)
+    public void nextInput() {
+        stub.prepare(workload.nextTweetList(recordsPerCall), new JOrderedList(SyntheticWorkload.TWEET_TYPE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        function.deinitialize();
+    }
+
+    @Benchmark
+    public Object evaluate() throws Exception {
+        function.evaluate(stub.helper());
+        return stub.getResult();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.asterix.external.library.StreamedListsLSTMSentimentFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One evaluate() of StreamedListsLSTMSentimentFunction on a TweetBatch record as a feed would
+ * deliver it. With pipelineDepth above 0 a call returns the previous batch, so the measured time
+ * is the steady state cost per batch rather than the latency of a single one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamedListsFunctionBenchmark {
+    @Param({ "100", "1000", "10000" })
+    public int tweetsPerBatch;
+
+    @Param({ "0", "1" })
+    public int pipelineDepth;
+
+    private StreamedListsLSTMSentimentFunction function;
+    private StubFunctionHelper stub;
+    private SyntheticWorkload workload;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticModelState files) throws Exception {
+        workload = files.newWorkload();
+        stub = StubFunctionHelper.create(files.functionParameters("pipelineDepth=" + pipelineDepth));
+        function = new StreamedListsLSTMSentimentFunction();
+        function.initialize(stub.helper());
+    }
+
+    @Setup(Level.Invocation)
+    public void nextInput() {
+        stub.prepare(workload.nextTweetBatchRecord(tweetsPerBatch), SyntheticWorkload.emptyTweetBatchRecord());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        function.deinitialize();
+    }
+
+    @Benchmark
+    public Object evaluate() throws Exception {
+        function.evaluate(stub.helper());
+        return stub.getResult();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.asterix.external.api.IJObject;
+import org.apache.asterix.external.library.StreamedRecordsLSTMSentimentFunction;
+import org.apache.asterix.external.library.java.base.JBoolean;
+import org.apache.asterix.external.library.java.base.JLong;
+import org.apache.asterix.external.library.java.base.JOrderedList;
+import org.apache.asterix.external.library.java.base.JRecord;
+import org.apache.asterix.external.library.java.base.JString;
+import org.apache.asterix.om.types.AOrderedListType;
+import org.apache.asterix.om.types.ARecordType;
+import org.apache.asterix.om.types.BuiltinType;
+import org.apache.asterix.om.types.IAType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sustained records per second through StreamedRecordsLSTMSentimentFunction, one evaluate() per
+ * tweet as a feed delivers them. Micro-batching, the deadline flush and pipelining are all on
+ * the measured path. Per record latency is in the recordLatency stage of the LSTMClassifyStream
+ * metrics, which are logged once per measurement iteration and at the end of the trial.
+ *
+ * Tweets are generated inside the measured call, since per invocation setup is too coarse at
+ * this granularity. WordVecBenchmark gives an idea of how small that share is.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamedRecordsFunctionBenchmark {
+    private static final ARecordType RESULT_TYPE = new ARecordType("TweetBatch",
+            new String[] { "id", "text", "isMaster", "tweets" },
+            new IAType[] { BuiltinType.AINT64, BuiltinType.ASTRING, BuiltinType.ABOOLEAN,
+                    new AOrderedListType(SyntheticWorkload.TWEET_TYPE, null) }, true);
+
+    @Param({ "0", "1", "2" })
+    public int pipelineDepth;
+
+    @Param({ "0", "5" })
+    public int lengthBucketWidth;
+
+    private StreamedRecordsLSTMSentimentFunction function;
+    private StubFunctionHelper stub;
+    private SyntheticWorkload workload;
+    private JRecord resultObject;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticModelState files) throws Exception {
+        workload = files.newWorkload();
+        stub = StubFunctionHelper.create(
+                files.functionParameters("pipelineDepth=" + pipelineDepth + ",lengthBucketWidth=" + lengthBucketWidth
+                        + ",metricsLogInterval=5"));
+        function = new StreamedRecordsLSTMSentimentFunction();
+        function.initialize(stub.helper());
+
+        IJObject[] fields = { new JLong(0), new JString(""), new JBoolean(false), new JOrderedList(SyntheticWorkload.TWEET_TYPE) };
+        resultObject = new JRecord(RESULT_TYPE, fields);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        function.deinitialize();
+    }
+
+    @Benchmark
+    public Object evaluate() throws Exception {
+        stub.prepare(workload.nextTweetRecord(), resultObject);
+        function.evaluate(stub.helper());
+        return stub.getResult();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.asterix.external.api.IFunctionHelper;
+import org.apache.asterix.external.api.IJObject;
+
+/**
+ * Minimal IFunctionHelper for driving the functions outside AsterixDB. Only the calls the LSTM
+ * functions make are answered: one argument, a result object, setResult and the descriptor
+ * parameters. Built on a dynamic proxy so it does not break when IFunctionHelper gains methods.
+ */
+public class StubFunctionHelper implements InvocationHandler {
+    private final List<String> parameters;
+    private final IFunctionHelper helper;
+    private IJObject argument;
+    private IJObject resultObject;
+    private IJObject result;
+
+    private StubFunctionHelper(String parameters) {
+        this.parameters = Collections.singletonList(parameters);
+        this.helper = (IFunctionHelper) Proxy.newProxyInstance(IFunctionHelper.class.getClassLoader(),
+                new Class<?>[] { IFunctionHelper.class }, this);
+    }
+
+    /**
+     * @param parameters contents of the function's &lt;parameters&gt; element, e.g. "modelPath=...,pipelineDepth=1"
+     */
+    public static StubFunctionHelper create(String parameters) {
+        return new StubFunctionHelper(parameters);
+    }
+
+    public IFunctionHelper helper() {
+        return helper;
+    }
+
+    /**
+     * Sets up the next evaluate() call: its input, and the object getResultObject() hands out.
+     */
+    public void prepare(IJObject argument, IJObject resultObject) {
+        this.argument = argument;
+        this.resultObject = resultObject;
+        this.result = null;
+    }
+
+    public IJObject getResult() {
+        return result;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("getArgument")) {
+            return argument;
+        } else if (name.equals("getResultObject")) {
+            return resultObject;
+        } else if (name.equals("setResult")) {
+            result = (IJObject) args[0];
+            return null;
+        } else if (name.equals("getParameters")) {
+            return parameters;
+        } else if (name.equals("isValidResult")) {
+            return result != null;
+        } else if (name.equals("toString")) {
+            return "StubFunctionHelper" + parameters;
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("equals")) {
+            return proxy == args[0];
+        }
+        throw new UnsupportedOperationException(name + " is not supported outside AsterixDB");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Synthetic vocabulary index and model files, written once per trial and shared by every
+ * benchmark thread. The sizes default to roughly those of the sentiment140 model.
+ */
+@State(Scope.Benchmark)
+public class SyntheticModelState {
+    @Param({ "50000" })
+    public int vocabularySize;
+
+    @Param({ "64" })
+    public int embeddingSize;
+
+    @Param({ "128" })
+    public int lstmSize;
+
+    // Share of tweets that repeat an earlier one, as retweets do
+    @Param({ "0.2" })
+    public double retweetRatio;
+
+    public File vocabularyFile;
+    public File modelFile;
+
+    @Setup(Level.Trial)
+    public void writeFiles() throws Exception {
+        File directory = SyntheticWorkload.createWorkDirectory();
+        SyntheticWorkload workload = newWorkload();
+        vocabularyFile = workload.writeVocabulary(directory);
+        modelFile = workload.writeModel(directory, embeddingSize, lstmSize);
+        vocabularyFile.deleteOnExit();
+        modelFile.deleteOnExit();
+    }
+
+    public SyntheticWorkload newWorkload() {
+        return new SyntheticWorkload(vocabularySize, retweetRatio, 1234L);
+    }
+
+    /**
+     * Function parameters pointing the LSTM functions at the synthetic files.
+     */
+    public String functionParameters(String extraParameters) {
+        String parameters = "modelPath=" + modelFile.getAbsolutePath() + ",vocabularyPath=" + vocabularyFile.getAbsolutePath();
+        return extraParameters.isEmpty() ? parameters : parameters + "," + extraParameters;
+    }
+}
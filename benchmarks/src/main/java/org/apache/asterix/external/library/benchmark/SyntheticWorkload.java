@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.asterix.external.api.IJObject;
+import org.apache.asterix.external.library.dl4j.WordIndex;
+import org.apache.asterix.external.library.java.base.JBoolean;
+import org.apache.asterix.external.library.java.base.JLong;
+import org.apache.asterix.external.library.java.base.JOrderedList;
+import org.apache.asterix.external.library.java.base.JRecord;
+import org.apache.asterix.external.library.java.base.JString;
+import org.apache.asterix.om.types.AOrderedListType;
+import org.apache.asterix.om.types.ARecordType;
+import org.apache.asterix.om.types.BuiltinType;
+import org.apache.asterix.om.types.IAType;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.EmbeddingSequenceLayer;
+import org.deeplearning4j.nn.conf.layers.LSTM;
+import org.deeplearning4j.nn.conf.layers.RnnOutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+/**
+ * Stand-in for the sentiment140 vocabulary, the trained model and a live tweet feed, so the
+ * benchmarks can run anywhere. Everything is generated from a fixed seed.
+ *
+ * The vocabulary is ranked like the real one (id 1 = most frequent word) and tweets draw words
+ * from it with a Zipf distribution, mixed with out-of-vocabulary words, mentions, punctuation and
+ * retweets of earlier tweets. The network has the same shape as the trained one: an embedding
+ * over word ids, an LSTM and a per-timestep softmax over the two sentiments, randomly initialized.
+ */
+public class SyntheticWorkload {
+    public static final int VECTOR_LENGTH = 30;
+
+    public static final ARecordType TWEET_TYPE = new ARecordType("TweetType",
+            new String[] { "id", "text", "sentiment" },
+            new IAType[] { BuiltinType.AINT64, BuiltinType.ASTRING, BuiltinType.ASTRING }, true);
+
+    public static final ARecordType TWEET_BATCH_TYPE = new ARecordType("TweetBatch",
+            new String[] { "id", "isMaster", "tweets" },
+            new IAType[] { BuiltinType.AINT64, BuiltinType.ABOOLEAN, new AOrderedListType(TWEET_TYPE, null) }, true);
+
+    private final int vocabularySize;
+    private final double[] cumulativeFrequency;
+    private final Random random;
+    private final double retweetRatio;
+    private final List<String> recentTweets = new ArrayList<String>();
+    private long nextId;
+
+    public SyntheticWorkload(int vocabularySize, double retweetRatio, long seed) {
+        this.vocabularySize = vocabularySize;
+        this.retweetRatio = retweetRatio;
+        this.random = new Random(seed);
+
+        // Zipf with exponent 1 over the ranked vocabulary
+        cumulativeFrequency = new double[vocabularySize];
+        double total = 0;
+        for (int rank = 1; rank <= vocabularySize; rank++) {
+            total += 1.0 / rank;
+            cumulativeFrequency[rank - 1] = total;
+        }
+        for (int i = 0; i < vocabularySize; i++) {
+            cumulativeFrequency[i] /= total;
+        }
+    }
+
+    /**
+     * Word with the given frequency rank: a, b, ..., z, aa, ab, ...
+     */
+    public static String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        for (int n = rank; n > 0; n = (n - 1) / 26) {
+            word.append((char) ('a' + (n - 1) % 26));
+        }
+        return word.reverse().toString();
+    }
+
+    public File writeVocabulary(File directory) throws IOException {
+        LinkedHashMap<String, Integer> wordIds = new LinkedHashMap<String, Integer>();
+        for (int rank = 1; rank <= vocabularySize; rank++) {
+            wordIds.put(word(rank), rank);
+        }
+        File indexFile = new File(directory, "wordvec.idx");
+        WordIndex.write(wordIds, indexFile);
+        return indexFile;
+    }
+
+    public File writeModel(File directory, int embeddingSize, int lstmSize) throws IOException {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(42)
+                .weightInit(WeightInit.XAVIER)
+                .list()
+                .layer(new EmbeddingSequenceLayer.Builder().nIn(vocabularySize + 1).nOut(embeddingSize)
+                        .inputLength(VECTOR_LENGTH).build())
+                .layer(new LSTM.Builder().nIn(embeddingSize).nOut(lstmSize).activation(Activation.TANH).build())
+                .layer(new RnnOutputLayer.Builder(LossFunctions.LossFunction.MCXENT).activation(Activation.SOFTMAX)
+                        .nIn(lstmSize).nOut(2).build())
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+
+        File modelFile = new File(directory, "synthetic_rnn_model.zip");
+        boolean saveUpdater = false;
+        net.save(modelFile, saveUpdater);
+        return modelFile;
+    }
+
+    public static File createWorkDirectory() throws IOException {
+        File directory = Files.createTempDirectory("sentiment-udf-bench").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    public String nextTweet() {
+        if (!recentTweets.isEmpty() && random.nextDouble() < retweetRatio) {
+            return "RT @" + word(1 + random.nextInt(1000)) + ": " + recentTweets.get(random.nextInt(recentTweets.size()));
+        }
+
+        int words = 3 + random.nextInt(20);
+        StringBuilder tweet = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                tweet.append(' ');
+            }
+            double kind = random.nextDouble();
+            if (kind < 0.05) {
+                tweet.append('@').append(word(1 + random.nextInt(vocabularySize)));
+            } else if (kind < 0.10) {
+                // Out of vocabulary, longer than any generated word
+                tweet.append("zzzzzz").append(word(1 + random.nextInt(1000)));
+            } else {
+                String word = word(nextRank());
+                tweet.append(kind < 0.15 ? word.toUpperCase() : word);
+            }
+            if (random.nextDouble() < 0.05) {
+                tweet.append(random.nextBoolean() ? '!' : ',');
+            }
+        }
+
+        String text = tweet.toString();
+        if (recentTweets.size() < 10000) {
+            recentTweets.add(text);
+        } else {
+            recentTweets.set(random.nextInt(recentTweets.size()), text);
+        }
+        return text;
+    }
+
+    public JRecord nextTweetRecord() {
+        IJObject[] fields = { new JLong(nextId++), new JString(nextTweet()), new JString("") };
+        return new JRecord(TWEET_TYPE, fields);
+    }
+
+    public JOrderedList nextTweetList(int size) {
+        JOrderedList tweets = new JOrderedList(TWEET_TYPE);
+        for (int i = 0; i < size; i++) {
+            tweets.add(nextTweetRecord());
+        }
+        return tweets;
+    }
+
+    public JRecord nextTweetBatchRecord(int size) {
+        IJObject[] fields = { new JLong(nextId++), new JBoolean(true), nextTweetList(size) };
+        return new JRecord(TWEET_BATCH_TYPE, fields);
+    }
+
+    public static JRecord emptyTweetBatchRecord() {
+        IJObject[] fields = { new JLong(0), new JBoolean(false), new JOrderedList(TWEET_TYPE) };
+        return new JRecord(TWEET_BATCH_TYPE, fields);
+    }
+
+    public String[] nextTweets(int count) {
+        String[] tweets = new String[count];
+        for (int i = 0; i < count; i++) {
+            tweets[i] = nextTweet();
+        }
+        return tweets;
+    }
+
+    private int nextRank() {
+        int index = Arrays.binarySearch(cumulativeFrequency, random.nextDouble());
+        return Math.min((index < 0 ? -index - 1 : index) + 1, vocabularySize);
+    }
+}
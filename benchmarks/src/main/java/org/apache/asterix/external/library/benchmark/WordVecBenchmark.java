@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.asterix.external.library.dl4j.WordVec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tweet to word-id vector conversion, per tweet. Compares the single pass conversion into a
+ * shared batch array, the same conversion into a new array per tweet, and the original
+ * replaceAll/toLowerCase/split tokenizer with a lookup per word as the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WordVecBenchmark {
+    private static final int TWEETS = 1024;
+
+    private WordVec wordVec;
+    private String[] tweets;
+    private double[] batch;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticModelState files) throws Exception {
+        wordVec = new WordVec();
+        wordVec.initialize(files.vocabularyFile.getAbsolutePath());
+        tweets = files.newWorkload().nextTweets(TWEETS);
+        batch = new double[TWEETS * SyntheticWorkload.VECTOR_LENGTH];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void intoBatch(Blackhole blackhole) {
+        int words = 0;
+        for (int i = 0; i < TWEETS; i++) {
+            words += wordVec.sentenceToWordVec(tweets[i], batch, i * SyntheticWorkload.VECTOR_LENGTH,
+                    SyntheticWorkload.VECTOR_LENGTH);
+        }
+        blackhole.consume(words);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void perTweetArray(Blackhole blackhole) {
+        for (int i = 0; i < TWEETS; i++) {
+            blackhole.consume(wordVec.sentenceToWordVec(tweets[i], SyntheticWorkload.VECTOR_LENGTH));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void regexBaseline(Blackhole blackhole) {
+        for (int i = 0; i < TWEETS; i++) {
+            String[] words = tweets[i].replaceAll("[^a-zA-Z ]", "").toLowerCase().split("\\s+");
+            double[] vector = new double[SyntheticWorkload.VECTOR_LENGTH];
+            for (int w = 0; w < words.length && w < vector.length; w++) {
+                vector[w] = wordVec.wordToNumber(words[w]);
+            }
+            blackhole.consume(vector);
+        }
+    }
+}
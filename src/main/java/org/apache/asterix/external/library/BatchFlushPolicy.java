@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a partially filled micro-batch of streamed records should be sent to inference.
+ *
+ * A batch is flushed as soon as it holds maxBatchSize records, or once its oldest record has
+ * waited maxWait and it holds at least minBatchSize records. The minimum keeps a slow feed from
+ * degenerating into single-record inference calls; set it to 1 for a pure deadline.
+ */
+public class BatchFlushPolicy {
+    private final int maxBatchSize;
+    private final int minBatchSize;
+    private final long maxWaitNanos;
+
+    public BatchFlushPolicy(int maxBatchSize, int minBatchSize, long maxWait, TimeUnit unit) {
+        if (maxBatchSize < 1 || minBatchSize < 1 || minBatchSize > maxBatchSize) {
+            throw new IllegalArgumentException(
+                    "Require 1 <= minBatchSize <= maxBatchSize, got " + minBatchSize + " and " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.minBatchSize = minBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public boolean shouldFlush(int bufferedRecords, long oldestArrivalNanos, long nowNanos) {
+        if (bufferedRecords >= maxBatchSize) {
+            return true;
+        }
+        return bufferedRecords >= minBatchSize && nowNanos - oldestArrivalNanos >= maxWaitNanos;
+    }
+}
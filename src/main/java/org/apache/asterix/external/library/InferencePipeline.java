@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.asterix.external.library.dl4j.SentimentCache;
+import org.apache.asterix.external.library.dl4j.SentimentModel;
+import org.apache.asterix.external.library.dl4j.WordVec;
+import org.apache.asterix.external.library.java.base.JLong;
+import org.apache.asterix.external.library.java.base.JRecord;
+import org.apache.asterix.external.library.metrics.LSTMFunctionMetrics;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Overlaps vectorization of the next batch with inference of the previous ones.
+ *
+ * The pipeline owns depth + 1 preallocated batches: one being filled by the feed thread and up to
+ * depth in inference at the same time, plus one more created on demand so a caller can take the
+ * next batch to fill while it still holds a completed one for emission. Completed batches are
+ * handed back strictly in submission order, and a batch is only reused after the caller has
+ * emitted it and passed it to recycle(). With depth 0 inference runs inline on submit(), which is
+ * the plain synchronous behaviour.
+ *
+ * A batch whose inference failed is recycled by pollCompleted() or awaitOldest() before the
+ * failure is rethrown, so its buffer is not lost and later calls keep working.
+ *
+ * Records whose word ids are already in the model's SentimentCache are answered from it when
+ * they are added, and only the misses are sent to the network.
+ *
+ * Vectorization, input construction and inference times, batch fill and unknown words are
+ * recorded in the function's LSTMFunctionMetrics.
+ */
+public class InferencePipeline {
+
+    public class Batch {
+        public JRecord[] records;
+        public long[] arrivalTimes;
+        public int size;
+        // Id of the record that carried the batch in, for functions that receive whole batches
+        public JLong id;
+
+        // Word ids and word counts of the records that missed the cache, row-major [rows x vectorLength]
+        private double[] vectors;
+        private int[] lengths;
+        private int rows;
+        // Inference row of each record, or -1 if its sentiment came from the cache
+        private int[] rowOf;
+        private int[] cachedSentiments;
+        // Reused feature array matching vectors, created on first use
+        private INDArray features;
+        private Future<double[]> sentiments;
+
+        Batch(int capacity) {
+            vectors = new double[capacity * vectorLength];
+            lengths = new int[capacity];
+            records = new JRecord[capacity];
+            arrivalTimes = new long[capacity];
+            rowOf = new int[capacity];
+            cachedSentiments = new int[capacity];
+        }
+
+        public void ensureCapacity(int capacity) {
+            if (records.length < capacity) {
+                vectors = Arrays.copyOf(vectors, capacity * vectorLength);
+                lengths = Arrays.copyOf(lengths, capacity);
+                records = Arrays.copyOf(records, capacity);
+                arrivalTimes = Arrays.copyOf(arrivalTimes, capacity);
+                rowOf = Arrays.copyOf(rowOf, capacity);
+                cachedSentiments = Arrays.copyOf(cachedSentiments, capacity);
+                features = null;
+            }
+        }
+
+        /**
+         * Vectorizes the text of a record and appends the record to the batch.
+         */
+        public void add(JRecord record, String text, long arrivalTime) {
+            if (size == records.length) {
+                ensureCapacity(Math.max(2 * size, 1));
+            }
+            long start = System.nanoTime();
+            int offset = rows * vectorLength;
+            int length = wordVec.sentenceToWordVec(text, vectors, offset, vectorLength);
+            int cached = cache == null ? -1 : cache.get(vectors, offset, length);
+
+            // Words missing from the vocabulary get id 0
+            int unknownWords = 0;
+            for (int i = offset; i < offset + length; i++) {
+                if (vectors[i] == 0.0) {
+                    unknownWords++;
+                }
+            }
+            metrics.recordVectorization(System.nanoTime() - start, length, unknownWords);
+
+            records[size] = record;
+            arrivalTimes[size] = arrivalTime;
+            if (cached >= 0) {
+                rowOf[size] = -1;
+                cachedSentiments[size] = cached;
+            } else {
+                rowOf[size] = rows;
+                lengths[rows] = length;
+                rows++;
+            }
+            size++;
+        }
+
+        /**
+         * Sentiment of the i-th record, blocking until inference of this batch is done.
+         * 0 means positive, 1 negative.
+         */
+        public int getSentiment(int i) throws Exception {
+            if (rowOf[i] < 0) {
+                return cachedSentiments[i];
+            }
+            return (int) sentiments.get()[rowOf[i]];
+        }
+
+        private double[] classify() {
+            double[] predictedSentiments;
+            if (rows == 0) {
+                predictedSentiments = new double[0];
+            } else if (lengthBucketWidth > 0) {
+                predictedSentiments = model.classifyByLength(vectors, lengths, rows, vectorLength, lengthBucketWidth, metrics);
+            } else {
+                if (features == null) {
+                    features = Nd4j.create(DataType.DOUBLE, records.length, vectorLength);
+                }
+                predictedSentiments = model.classify(features, vectors, rows, vectorLength, metrics);
+            }
+
+            if (cache != null) {
+                for (int row = 0; row < rows; row++) {
+                    cache.put(vectors, row * vectorLength, lengths[row], (int) predictedSentiments[row]);
+                }
+            }
+            return predictedSentiments;
+        }
+    }
+
+    private final SentimentModel model;
+    private final WordVec wordVec;
+    private final SentimentCache cache;
+    private final LSTMFunctionMetrics metrics;
+    private final int vectorLength;
+    private final int depth;
+    private final int batchCapacity;
+    private int batches;
+    private final int lengthBucketWidth;
+    private final ExecutorService executor;
+    private final ArrayDeque<Batch> free = new ArrayDeque<Batch>();
+    private final ArrayDeque<Batch> inFlight = new ArrayDeque<Batch>();
+
+    /**
+     * A lengthBucketWidth above 0 classifies batches with SentimentModel.classifyByLength(),
+     * 0 runs every row for all vectorLength timesteps. The network is checked for length bucketing
+     * here, so a model that does not support it fails the function's initialize().
+     */
+    public InferencePipeline(SentimentModel model, int depth, int batchCapacity, int vectorLength, int lengthBucketWidth,
+            LSTMFunctionMetrics metrics) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Pipeline depth must not be negative, got " + depth);
+        }
+        if (lengthBucketWidth < 0) {
+            throw new IllegalArgumentException("Length bucket width must not be negative, got " + lengthBucketWidth);
+        }
+        if (lengthBucketWidth > 0) {
+            model.checkLengthBucketing(vectorLength, lengthBucketWidth);
+        }
+        this.model = model;
+        this.wordVec = model.getWordVec();
+        this.cache = model.getCache(vectorLength, lengthBucketWidth > 0);
+        this.metrics = metrics;
+        metrics.setCache(cache);
+        this.vectorLength = vectorLength;
+        this.depth = depth;
+        this.batchCapacity = batchCapacity;
+        this.lengthBucketWidth = lengthBucketWidth;
+        for (int i = 0; i <= depth; i++) {
+            free.add(new Batch(batchCapacity));
+        }
+        batches = depth + 1;
+        if (depth > 0) {
+            executor = Executors.newFixedThreadPool(depth, runnable -> {
+                Thread thread = new Thread(runnable, "lstm-sentiment-inference");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns an empty batch to fill, or null if all of them are in flight or waiting to be emitted.
+     */
+    public Batch nextFree() {
+        Batch batch = free.poll();
+        if (batch == null && batches < depth + 2) {
+            batch = new Batch(batchCapacity);
+            batches++;
+        }
+        return batch;
+    }
+
+    /**
+     * True if submitting another batch would exceed the number of batches allowed in flight,
+     * meaning the caller has to take the oldest one with awaitOldest() first.
+     */
+    public boolean isFull() {
+        return depth > 0 && inFlight.size() >= depth;
+    }
+
+    /**
+     * Hands a batch to inference. Never throws for a failed inference, that surfaces when the
+     * batch is taken back with pollCompleted() or awaitOldest().
+     */
+    public void submit(final Batch batch) {
+        metrics.recordBatch(batch.size, batch.records.length);
+        if (executor == null || batch.rows == 0) {
+            CompletableFuture<double[]> sentiments = new CompletableFuture<double[]>();
+            try {
+                sentiments.complete(batch.classify());
+            } catch (RuntimeException e) {
+                sentiments.completeExceptionally(e);
+            }
+            batch.sentiments = sentiments;
+        } else {
+            batch.sentiments = executor.submit(batch::classify);
+        }
+        inFlight.add(batch);
+    }
+
+    /**
+     * Returns the oldest batch if its inference has finished, without blocking.
+     */
+    public Batch pollCompleted() throws Exception {
+        Batch oldest = inFlight.peek();
+        if (oldest != null && oldest.sentiments.isDone()) {
+            return completed(inFlight.poll());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the oldest batch in flight, blocking until its inference has finished.
+     */
+    public Batch awaitOldest() throws Exception {
+        Batch oldest = inFlight.poll();
+        if (oldest != null) {
+            completed(oldest);
+        }
+        return oldest;
+    }
+
+    private Batch completed(Batch batch) throws Exception {
+        try {
+            batch.sentiments.get();
+        } catch (InterruptedException e) {
+            // Still running, leave it in flight
+            inFlight.addFirst(batch);
+            throw e;
+        } catch (ExecutionException e) {
+            recycle(batch);
+            throw e;
+        }
+        return batch;
+    }
+
+    public int recordsInFlight() {
+        int records = 0;
+        for (Batch batch : inFlight) {
+            records += batch.size;
+        }
+        return records;
+    }
+
+    public void recycle(Batch batch) {
+        Arrays.fill(batch.records, 0, batch.size, null);
+        batch.size = 0;
+        batch.rows = 0;
+        batch.id = null;
+        batch.sentiments = null;
+        free.add(batch);
+    }
+
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        inFlight.clear();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.asterix.external.api.IFunctionHelper;
+import org.apache.asterix.external.library.dl4j.SentimentModelRegistry;
+import org.apache.asterix.external.library.dl4j.WordVec;
+
+/**
+ * Tuning knobs for the LSTM functions, read from the &lt;parameters&gt; element of the function
+ * in library_descriptor.xml as comma separated key=value pairs, e.g.
+ * &lt;parameters&gt;pipelineDepth=2,chunkSize=10000&lt;/parameters&gt;.
+ * Anything not given there keeps the default passed in by the function.
+ */
+public class LSTMFunctionParameters {
+    private final Map<String, String> values = new HashMap<String, String>();
+
+    public LSTMFunctionParameters(IFunctionHelper functionHelper) {
+        List<String> parameters = functionHelper.getParameters();
+        if (parameters == null) {
+            return;
+        }
+        for (String parameter : parameters) {
+            for (String pair : parameter.split(",")) {
+                int separator = pair.indexOf('=');
+                if (separator > 0) {
+                    values.put(pair.substring(0, separator).trim(), pair.substring(separator + 1).trim());
+                }
+            }
+        }
+    }
+
+    /**
+     * Trained network to load, shared with every other function using the same path.
+     */
+    public String getModelPath() {
+        return getString("modelPath", SentimentModelRegistry.defaultModelPath);
+    }
+
+    /**
+     * Vocabulary index built by WordIndexBuilder from the data the network was trained on.
+     */
+    public String getVocabularyPath() {
+        return getString("vocabularyPath", WordVec.indexFile);
+    }
+
+    /**
+     * Inference workers for the shared model, each holding a copy of the network. 0 means one per device.
+     */
+    public int getInferenceWorkers() {
+        int workers = getInt("inferenceWorkers", 0);
+        if (workers < 0) {
+            throw new IllegalArgumentException("inferenceWorkers must not be negative, got " + workers);
+        }
+        return workers;
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = values.get(key);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = values.get(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + key + " must be an integer, got " + value, e);
+        }
+    }
+}
@@ -24,128 +24,123 @@ import org.apache.asterix.external.api.IJObject;
 import org.apache.asterix.external.library.java.base.JOrderedList;
 import org.apache.asterix.external.library.java.base.JRecord;
 import org.apache.asterix.external.library.java.base.JString;
-import org.apache.asterix.external.library.dl4j.WordVec;
+import org.apache.asterix.external.library.dl4j.SentimentModel;
+import org.apache.asterix.external.library.dl4j.SentimentModelRegistry;
+import org.apache.asterix.external.library.metrics.LSTMFunctionMetrics;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.NDArrayIndex;
 
-import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
-import org.deeplearning4j.parallelism.ParallelInference;
-import org.deeplearning4j.parallelism.inference.InferenceMode;
-
-import java.io.File;
 import java.util.List;
-import java.util.ArrayList;
 
 
 public class StoredDataLSTMSentimentFunction implements IExternalScalarFunction {
-    private int batchSize;
+    private int chunkSize;
     private int vectorLength;
-    public MultiLayerNetwork net;
-    public ParallelInference piModel;
-    public WordVec customizedWordVec;
-    public long startTime;
+    public SentimentModel model;
+    // Synchronous pipeline with a single chunk buffer and feature array that are reused for every
+    // chunk, so peak memory depends on chunkSize rather than on the dataset
+    public InferencePipeline pipeline;
+    public LSTMFunctionMetrics metrics;
 
     @Override
-    public void deinitialize() {}
+    public void deinitialize() {
+        try {
+            if (pipeline != null){
+                pipeline.close();
+            }
+        } finally {
+            pipeline = null;
+            SentimentModelRegistry.release(model);
+            model = null;
+            LSTMFunctionMetrics.release(metrics);
+            metrics = null;
+        }
+    }
 
     @Override
     public void evaluate(IFunctionHelper functionHelper) throws Exception {
-        startTime = System.nanoTime();
+        long startTime = System.nanoTime();
 
         // Read input records
         JOrderedList inputRecordsOrdered = (JOrderedList) functionHelper.getArgument(0);
         List<IJObject> inputRecords = inputRecordsOrdered.getValue();
         int numRecords = inputRecords.size();
 
-        // Initialize batch
-        // TODO: Consider dividing batch up into smaller batches for large numbers of records
-        double[][] tweetVectorBatch = new double[numRecords][vectorLength];
-
-        // Convert tweets to vectors and put in batch
-        for (int i = 0; i < numRecords; i++){
-            JRecord tweetRecord = (JRecord) inputRecords.get(i);
-            JString tweetText = (JString) tweetRecord.getValueByName("text");
-            
+        // Populate output list with enriched tweets one chunk at a time
+        JOrderedList outputRecordsOrdered = (JOrderedList) functionHelper.getResultObject();
+        for (int chunkStart = 0; chunkStart < numRecords; chunkStart += chunkSize){
+            int chunkRecords = Math.min(chunkSize, numRecords - chunkStart);
+
+            // Convert tweets to vectors and put in chunk, cached tweets skip inference
+            InferencePipeline.Batch chunk = pipeline.nextFree();
+            try {
+                for (int i = 0; i < chunkRecords; i++){
+                    JRecord tweetRecord = (JRecord) inputRecords.get(chunkStart + i);
+                    JString tweetText = (JString) tweetRecord.getValueByName("text");
+                    chunk.add(tweetRecord, tweetText.getValue(), startTime);
+                }
+            } catch (Exception e) {
+                pipeline.recycle(chunk);
+                throw e;
+            }
 
-            tweetVectorBatch[i] = customizedWordVec.sentenceToWordVec(tweetText.getValue(), vectorLength);
+            // Run chunk through the network, with depth 0 this completes before returning.
+            // A failed chunk is recycled by the pipeline before the failure is rethrown
+            pipeline.submit(chunk);
+            chunk = pipeline.awaitOldest();
+
+            // Write sentiments back into the records of this chunk
+            try {
+                long assemblyStart = System.nanoTime();
+                for (int i = 0; i < chunkRecords; i++){
+                    String sentiment = chunk.getSentiment(i) == 0 ? "positive" : "negative";
+                    chunk.records[i].setField("sentiment", new JString(sentiment));
+                    outputRecordsOrdered.add(chunk.records[i]);
+                }
+                metrics.resultAssembly.record(System.nanoTime() - assemblyStart);
+            } finally {
+                pipeline.recycle(chunk);
+            }
         }
-        // Convert tweetBatch to format understandable by DL4J neural networks
-        INDArray features = Nd4j.create(tweetVectorBatch);
-
-        // Run batch through the parallel inference model of the recurrent neural net
-        INDArray networkOutput = piModel.output(features);
-
-        // Sentiment probabilities will be probabilities at last iteration of recurrence 
-        INDArray probabilitiesAtLastWord = networkOutput.get(NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.point(vectorLength-1));
-
-        // Convert to double array with an entry of 1 corresponding to positive and 0 to negative
-        double[] predictedSentiments = probabilitiesAtLastWord.argMax(1).toDoubleVector();
 
-        // Populate output list with enriched tweets
-        List<IJObject> outputRecords = new ArrayList<IJObject>();
+        // Every record of the call is emitted at once, so they share the same latency
+        metrics.recordLatency.record(System.nanoTime() - startTime, numRecords);
 
-        int unprocessedRecords = numRecords;
-        int currentBatch = 0;
-        while (unprocessedRecords > 0){
-            if (unprocessedRecords > batchSize) {
-                currentBatch = currentBatch + batchSize;
-            } else {
-                currentBatch = currentBatch + unprocessedRecords;
-            }
-            for (int i = 0; i < currentBatch; i++){
-                JRecord tweetRecord = (JRecord) inputRecords.get(i);
-                String sentiment = predictedSentiments[i] == 0 ? "positive" : "negative";
-                tweetRecord.setField("sentiment", new JString(sentiment));
-                outputRecords.add(tweetRecord);
-            }
-            unprocessedRecords = unprocessedRecords - batchSize;
-        }
-        
-        // Tracking processing time
-        long totalTime = (System.nanoTime() - startTime);
-        System.out.println("Total classification time: " + String.valueOf(totalTime) + " nanoseconds");
-        
         // Set result
-        JOrderedList outputRecordsOrdered = (JOrderedList) functionHelper.getResultObject();
         functionHelper.setResult(outputRecordsOrdered);
     }
 
     @Override
     public void initialize(IFunctionHelper functionHelper) throws Exception{
+        LSTMFunctionParameters parameters = new LSTMFunctionParameters(functionHelper);
+
         // Number of words to allow in vector.
         vectorLength = 30;
 
-        // Number of records to process at a time.
-        batchSize = 100000;
+        // Number of records to vectorize and classify at a time.
+        chunkSize = parameters.getInt("chunkSize", 10000);
+        if (chunkSize < 1){
+            throw new IllegalArgumentException("chunkSize must be positive, got " + chunkSize);
+        }
+
+        // Width of the length buckets used to skip padded timesteps, 0 runs all of them
+        int lengthBucketWidth = parameters.getInt("lengthBucketWidth", 0);
+        if (lengthBucketWidth < 0){
+            throw new IllegalArgumentException("lengthBucketWidth must not be negative, got " + lengthBucketWidth);
+        }
 
         //https://deeplearning4j.org/workspaces
         Nd4j.getMemoryManager().setAutoGcWindow(10000);
 
-        System.out.println("Started loading wordvectors");
-        customizedWordVec = new WordVec();
-
-        
-        customizedWordVec.initialize();
-        System.out.println("Wordvectors initialized");
-
-        System.out.println("Initialization of Neural Net started");
-        File f = new File("/lhome/torstebm/asterixdb-dl4j-sentiment-udf/src/main/java/org/apache/asterix/external/library/dl4j/1m_rnn_customizedWordVec_model.zip");
-        boolean saveUpdater = false;
-        net = MultiLayerNetwork.load(f, saveUpdater);
-        System.out.println("Neural Net Initialized");
-
-        // TODO: Load ParallelInference model directly
-        System.out.println("Initializing Parallel Inference");
-        piModel = new ParallelInference.Builder(net)
-            // BATCHED mode is kind of optimization: if number of incoming requests is too high - PI will be batching individual queries into single batch. If number of requests will be low - queries will be processed without batching
-            .inferenceMode(InferenceMode.BATCHED)
-            // max size of batch for BATCHED mode. you should set this value with respect to your environment (i.e. gpu memory amounts)
-            .batchLimit(15000)
-            // set this value to number of available computational devices, either CPUs or GPUs
-            .workers(2)
-            .build();
-        System.out.println("Parallel inference initialized");
+        // Seconds between summary log lines of the metrics shared by all instances, 0 for none
+        int metricsLogInterval = parameters.getInt("metricsLogInterval", 0);
+
+        // Network, inference workers and vocabulary are shared by every function instance in the JVM
+        model = SentimentModelRegistry.acquire(parameters.getModelPath(), parameters.getVocabularyPath(),
+                parameters.getInferenceWorkers());
+
+        // Initialize chunk buffers
+        metrics = LSTMFunctionMetrics.acquire("LSTMClassifyStored", metricsLogInterval);
+        pipeline = new InferencePipeline(model, 0, chunkSize, vectorLength, lengthBucketWidth, metrics);
     }
-}
\ No newline at end of file
+}
@@ -26,125 +26,148 @@ import org.apache.asterix.external.library.java.base.JBoolean;
 import org.apache.asterix.external.library.java.base.JRecord;
 import org.apache.asterix.external.library.java.base.JString;
 import org.apache.asterix.external.library.java.base.JOrderedList;
-import org.apache.asterix.external.library.dl4j.WordVec;
+import org.apache.asterix.external.library.dl4j.SentimentModel;
+import org.apache.asterix.external.library.dl4j.SentimentModelRegistry;
+import org.apache.asterix.external.library.metrics.LSTMFunctionMetrics;
 import org.apache.asterix.om.types.BuiltinType;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.NDArrayIndex;
-
-import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
-import org.deeplearning4j.parallelism.ParallelInference;
-import org.deeplearning4j.parallelism.inference.InferenceMode;
-
-import java.io.File;
-
 
 public class StreamedListsLSTMSentimentFunction implements IExternalScalarFunction {
-    private int batchSize;
-    private int batchPointer; 
     private int vectorLength;
-    public MultiLayerNetwork net;
-    public ParallelInference piModel;
-    public WordVec customizedWordVec;
-    public long startTime;
-    public double[][] tweetVectorBatch;
-    public JRecord[] outputRecords;
+    public SentimentModel model;
+    // With a pipeline depth above 0 each call returns the oldest finished batch instead of its own,
+    // so the next incoming batch is vectorized while earlier ones are still in inference
+    public InferencePipeline pipeline;
+    public LSTMFunctionMetrics metrics;
 
 
     @Override
-    public void deinitialize() {}
+    public void deinitialize() {
+        try {
+            if (pipeline != null){
+                int pendingRecords = pipeline.recordsInFlight();
+                if (pendingRecords > 0){
+                    System.out.println("Dropping " + pendingRecords + " unemitted records on deinitialize");
+                }
+                pipeline.close();
+            }
+        } finally {
+            pipeline = null;
+            SentimentModelRegistry.release(model);
+            model = null;
+            LSTMFunctionMetrics.release(metrics);
+            metrics = null;
+        }
+    }
 
     @Override
     public void evaluate(IFunctionHelper functionHelper) throws Exception {
         // Get input record/tweet
-        System.out.println("Getting batch object");
         JRecord inputRecord = (JRecord) functionHelper.getArgument(0);
 
         // Extract and process text of tweet
-        System.out.println("Extracting batch");
         JOrderedList tweetBatch = (JOrderedList) inputRecord.getValueByName("tweets");
         JLong tweetID = (JLong) inputRecord.getValueByName("id");
 
         // Build batch for processing
-        System.out.println("Building batch for processing");
-        for (int i = 0; i < tweetBatch.size(); i++){
-            JRecord tweet = (JRecord) tweetBatch.getElement(i);
-            JString tweetText = (JString) tweet.getValueByName("text");
-            double[] tweetVector = customizedWordVec.sentenceToWordVec(tweetText.getValue(), vectorLength);
-            tweetVectorBatch[i] = tweetVector;
+        int numTweets = tweetBatch.size();
+        InferencePipeline.Batch batch = pipeline.nextFree();
+        long now = System.nanoTime();
+        try {
+            batch.ensureCapacity(numTweets);
+            for (int i = 0; i < numTweets; i++){
+                JRecord tweet = (JRecord) tweetBatch.getElement(i);
+                JString tweetText = (JString) tweet.getValueByName("text");
+                batch.add(tweet, tweetText.getValue(), now);
+            }
+            batch.id = tweetID;
+        } catch (Exception e) {
+            pipeline.recycle(batch);
+            throw e;
         }
-        System.out.println("Processing through RNN");
-        // Convert tweetBatch to format understandable by DL4J neural networks
-        INDArray features = Nd4j.create(tweetVectorBatch);
-
-        // Run batch through the parallel inference model of the recurrent neural net
-        INDArray networkOutput = piModel.output(features);
-
-        // Sentiment probabilities will be probabilities at last iteration of recurrence 
-        INDArray probabilitiesAtLastWord = networkOutput.get(NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.point(vectorLength-1));
-
-        // Convert to double array with an entry of 1 corresponding to positive and 0 to negative
-        double[] predictedSentiments = probabilitiesAtLastWord.argMax(1).toDoubleVector();
-
-        // Loop through batch of input records, add sentiment field and add to list 
-        System.out.println("Matching up sentiments with tweets");
-        for (int i = 0; i < batchSize; i++){
-            String sentiment = predictedSentiments[i] == 0 ? "positive" : "negative";
-            JRecord tweet = (JRecord) tweetBatch.getElement(i);
-            tweet.setField("sentiment", new JString(sentiment));
-            tweetBatch.add(outputRecords[i]);
+
+        // Bound the number of batches in flight by waiting for the oldest one. The new batch is
+        // submitted even if that fails, so its buffer always goes back to the pipeline
+        InferencePipeline.Batch completedBatch = null;
+        try {
+            if (pipeline.isFull()){
+                completedBatch = pipeline.awaitOldest();
+            }
+        } finally {
+            pipeline.submit(batch);
+        }
+        if (completedBatch == null){
+            completedBatch = pipeline.pollCompleted();
         }
 
-        // Get and populate output record
-        System.out.println("Setting results");
+        long assemblyStart = System.nanoTime();
         JRecord tweetBatchObject = (JRecord) functionHelper.getResultObject();
-        tweetBatchObject.setField("id", tweetID);
-        tweetBatchObject.setField("tweets", tweetBatch);
+        if (completedBatch != null){
+            try {
+                // Loop through batch of input records, add sentiment field and add to list 
+                JOrderedList classifiedBatch = new JOrderedList(BuiltinType.ANY);
+                for (int i = 0; i < completedBatch.size; i++){
+                    String sentiment = completedBatch.getSentiment(i) == 0 ? "positive" : "negative";
+                    completedBatch.records[i].setField("sentiment", new JString(sentiment));
+                    classifiedBatch.add(completedBatch.records[i]);
+                }
+
+                // Get and populate output record
+                tweetBatchObject.setField("id", completedBatch.id);
+                tweetBatchObject.setField("isMaster", new JBoolean(true));
+                tweetBatchObject.setField("tweets", classifiedBatch);
+
+                long emitted = System.nanoTime();
+                metrics.resultAssembly.record(emitted - assemblyStart);
+                for (int i = 0; i < completedBatch.size; i++){
+                    metrics.recordLatency.record(emitted - completedBatch.arrivalTimes[i]);
+                }
+            } finally {
+                pipeline.recycle(completedBatch);
+            }
+        } else {
+            // Return dummy record due to UDF contract of every input needing an output
+            tweetBatchObject.setField("id", tweetID);
+            tweetBatchObject.setField("isMaster", new JBoolean(false));
+            tweetBatchObject.setField("tweets", new JOrderedList(BuiltinType.ANY));
+        }
 
         // Set result object
         functionHelper.setResult(tweetBatchObject);
-
     }
 
     @Override
     public void initialize(IFunctionHelper functionHelper) throws Exception{
+        LSTMFunctionParameters parameters = new LSTMFunctionParameters(functionHelper);
+
         // Number of words to allow in vector.
         vectorLength = 30;
 
         // Number of records to process at a time.
-        batchSize = 50000;
-
-        System.out.println("Started loading wordvectors");
-        customizedWordVec = new WordVec();
-        customizedWordVec.initialize();
-        System.out.println("Wordvectors initialized");
-
-        System.out.println("Initialization of Neural Net started");
-        File f = new File("/lhome/torstebm/asterixdb-dl4j-sentiment-udf/src/main/java/org/apache/asterix/external/library/dl4j/1m_rnn_customizedWordVec_model.zip");
-        boolean saveUpdater = false;    
-        net = MultiLayerNetwork.load(f, saveUpdater);
-        System.out.println("Neural Net Initialized");
-
-        // TODO: Load ParallelInference model directly to shorten initialize function
-        System.out.println("Initializing Parallel Inference");
-        piModel = new ParallelInference.Builder(net)
-            .inferenceMode(InferenceMode.BATCHED)
-            // max size of batch for BATCHED mode. Set with respect to your environment (i.e. gpu memory)
-            .batchLimit(15000)
-            // set this value to number of available computational devices
-            .workers(2)
-            .build();
-        System.out.println("Parallel inference initialized");
-
-        System.out.println("I am using this file, right?");
+        int batchSize = 50000;
 
-        // Initialize batching data structures
-        tweetVectorBatch = new double[batchSize][vectorLength];
-        outputRecords = new JRecord[batchSize];
-        batchPointer = 0;
+        // Number of batches allowed in inference while the next one is being vectorized. Above 0
+        // results lag behind their input by that many calls, so it is off unless asked for
+        int pipelineDepth = parameters.getInt("pipelineDepth", 0);
+        if (pipelineDepth < 0){
+            throw new IllegalArgumentException("pipelineDepth must not be negative, got " + pipelineDepth);
+        }
+
+        // Words per length bucket, see SentimentModel.classifyByLength(). 0 disables bucketing
+        int lengthBucketWidth = parameters.getInt("lengthBucketWidth", 0);
+        if (lengthBucketWidth < 0){
+            throw new IllegalArgumentException("lengthBucketWidth must not be negative, got " + lengthBucketWidth);
+        }
+
+        // Seconds between summary log lines of the metrics shared by all instances, 0 for none
+        int metricsLogInterval = parameters.getInt("metricsLogInterval", 0);
 
-        startTime = System.nanoTime();
-        System.out.println("End of initialize");
+        // Network, inference workers and vocabulary are shared by every function instance in the JVM
+        model = SentimentModelRegistry.acquire(parameters.getModelPath(), parameters.getVocabularyPath(),
+                parameters.getInferenceWorkers());
+
+        // Initialize batching data structures
+        metrics = LSTMFunctionMetrics.acquire("LSTMClassifyBatchStream", metricsLogInterval);
+        pipeline = new InferencePipeline(model, pipelineDepth, batchSize, vectorLength, lengthBucketWidth, metrics);
     }
-}
\ No newline at end of file
+}
@@ -26,34 +26,45 @@ import org.apache.asterix.external.library.java.base.JBoolean;
 import org.apache.asterix.external.library.java.base.JRecord;
 import org.apache.asterix.external.library.java.base.JString;
 import org.apache.asterix.external.library.java.base.JOrderedList;
-import org.apache.asterix.external.library.dl4j.WordVec;
+import org.apache.asterix.external.library.dl4j.SentimentModel;
+import org.apache.asterix.external.library.dl4j.SentimentModelRegistry;
+import org.apache.asterix.external.library.metrics.LSTMFunctionMetrics;
 import org.apache.asterix.om.types.BuiltinType;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.NDArrayIndex;
-
-import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
-import org.deeplearning4j.parallelism.ParallelInference;
-import org.deeplearning4j.parallelism.inference.InferenceMode;
-
-import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 
 public class StreamedRecordsLSTMSentimentFunction implements IExternalScalarFunction {
-    private int batchSize;
-    private int batchPointer; 
     private int vectorLength;
-    public MultiLayerNetwork net;
-    public ParallelInference piModel;
-    public WordVec customizedWordVec;
-    public long startTime;
-    public double[][] tweetVectorBatch;
-    public JRecord[] outputRecords;
+    public SentimentModel model;
+    // Double-buffered batches: one filled here while earlier ones are in inference
+    public InferencePipeline pipeline;
+    public InferencePipeline.Batch currentBatch;
+    public BatchFlushPolicy flushPolicy;
+    public LSTMFunctionMetrics metrics;
 
 
     @Override
-    public void deinitialize() {}
+    public void deinitialize() {
+        // Records still buffered or in flight have already been answered with dummy records, and there
+        // is no evaluate call left to emit a master record for them, so the best we can do is report them
+        try {
+            if (pipeline != null){
+                int pendingRecords = (currentBatch == null ? 0 : currentBatch.size) + pipeline.recordsInFlight();
+                if (pendingRecords > 0){
+                    System.out.println("Dropping " + pendingRecords + " unemitted records on deinitialize");
+                }
+                pipeline.close();
+            }
+        } finally {
+            pipeline = null;
+            currentBatch = null;
+            SentimentModelRegistry.release(model);
+            model = null;
+            LSTMFunctionMetrics.release(metrics);
+            metrics = null;
+        }
+    }
 
     @Override
     public void evaluate(IFunctionHelper functionHelper) throws Exception {
@@ -63,7 +74,6 @@ public class StreamedRecordsLSTMSentimentFunction implements IExternalScalarFunc
         // Extract and process text of tweet
         JString tweetText = (JString) inputRecord.getValueByName("text");
         JLong tweetID = (JLong) inputRecord.getValueByName("id");
-        double[] tweetVector = customizedWordVec.sentenceToWordVec(tweetText.getValue(), vectorLength);
 
         // Add record to list
         JRecord outputRecord = (JRecord) functionHelper.getResultObject();
@@ -71,53 +81,38 @@ public class StreamedRecordsLSTMSentimentFunction implements IExternalScalarFunc
         outputRecord.setField("id", tweetID);
 
         // Build batch of vectors to be processed by RNN, while keeping track of
-        // order for when we must match RNN sentiment output with record after processing
-        outputRecords[batchPointer] = inputRecord;
-        tweetVectorBatch[batchPointer] = tweetVector;
-        batchPointer++;
-
-        // If batch is full
-        if (batchPointer >= batchSize){
-            // Convert tweetBatch to format understandable by DL4J neural networks
-            INDArray features = Nd4j.create(tweetVectorBatch);
-
-            // Run batch through the parallel inference model of the recurrent neural net
-            INDArray networkOutput = piModel.output(features);
-
-            // Sentiment probabilities will be probabilities at last iteration of recurrence 
-            INDArray probabilitiesAtLastWord = networkOutput.get(NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.point(vectorLength-1));
-
-            // Convert to double array with an entry of 1 corresponding to positive and 0 to negative
-            double[] predictedSentiments = probabilitiesAtLastWord.argMax(1).toDoubleVector();
-        
-            // Init list of processed tweets that will be a field of the return record,
-            // accessed through TweetBatch.tweets through SQL++ in the AsterixDB query interface
-            JOrderedList tweetBatch = new JOrderedList(BuiltinType.ANY);
-
-            // Loop through batch of input records, add sentiment field and add to list 
-            for (int i = 0; i < batchSize; i++){
-                String sentiment = predictedSentiments[i] == 0 ? "positive" : "negative";
-                outputRecords[i].setField("sentiment", new JString(sentiment));
-                tweetBatch.add(outputRecords[i]);
+        // order for when we must match RNN sentiment output with record after processing.
+        // Tweets already in the sentiment cache are resolved here and skip inference
+        long now = System.nanoTime();
+        currentBatch.add(inputRecord, tweetText.getValue(), now);
+
+        // If batch is full, or its oldest record has waited long enough, hand it to inference
+        // and keep filling the next buffer while it runs
+        InferencePipeline.Batch completedBatch = null;
+        if (flushPolicy.shouldFlush(currentBatch.size, currentBatch.arrivalTimes[0], now)){
+            // Take the next buffer first, so a failed inference below cannot leave us without one
+            InferencePipeline.Batch flushedBatch = currentBatch;
+            currentBatch = pipeline.nextFree();
+            try {
+                // Bound the number of batches in flight by waiting for the oldest one
+                if (pipeline.isFull()){
+                    completedBatch = pipeline.awaitOldest();
+                }
+            } finally {
+                pipeline.submit(flushedBatch);
             }
+        }
+        if (completedBatch == null){
+            completedBatch = pipeline.pollCompleted();
+        }
 
-            // Get and populate output record
-            JRecord tweetBatchObject = (JRecord) functionHelper.getResultObject();
-            tweetBatchObject.setField("id", tweetID);
-            tweetBatchObject.setField("isMaster", new JBoolean(true));
-            tweetBatchObject.setField("tweets", tweetBatch);
-
-            // Set result object
-            functionHelper.setResult(tweetBatchObject);
- 
-            // Reset batch pointer as we prepare next batch
-            batchPointer = 0;
-
-            // Track batch processing time
-            long totalTime = (System.nanoTime() - startTime);
-            System.out.println("Batch time: " + String.valueOf(totalTime) + " nanoseconds");
-            startTime = System.nanoTime(); 
-
+        if (completedBatch != null){
+            try {
+                emit(functionHelper, completedBatch, tweetID);
+            } finally {
+                // Buffer can be filled again now that its records have been emitted
+                pipeline.recycle(completedBatch);
+            }
         } else {
             // Return dummy record due to UDF contract of every input needing an output
             JRecord tweetBatchObject = (JRecord) functionHelper.getResultObject();
@@ -129,42 +124,84 @@ public class StreamedRecordsLSTMSentimentFunction implements IExternalScalarFunc
         }
     }
 
+    private void emit(IFunctionHelper functionHelper, InferencePipeline.Batch completedBatch, JLong tweetID) throws Exception{
+        long assemblyStart = System.nanoTime();
+        int numRecords = completedBatch.size;
+
+        // Init list of processed tweets that will be a field of the return record,
+        // accessed through TweetBatch.tweets through SQL++ in the AsterixDB query interface
+        JOrderedList tweetBatch = new JOrderedList(BuiltinType.ANY);
+
+        // Loop through batch of input records, add sentiment field and add to list 
+        for (int i = 0; i < numRecords; i++){
+            String sentiment = completedBatch.getSentiment(i) == 0 ? "positive" : "negative";
+            completedBatch.records[i].setField("sentiment", new JString(sentiment));
+            tweetBatch.add(completedBatch.records[i]);
+        }
+
+        // Get and populate output record
+        JRecord tweetBatchObject = (JRecord) functionHelper.getResultObject();
+        tweetBatchObject.setField("id", tweetID);
+        tweetBatchObject.setField("isMaster", new JBoolean(true));
+        tweetBatchObject.setField("tweets", tweetBatch);
+
+        // Set result object
+        functionHelper.setResult(tweetBatchObject);
+
+        // Track assembly time and arrival-to-emission latency of every record in the batch
+        long emitted = System.nanoTime();
+        metrics.resultAssembly.record(emitted - assemblyStart);
+        for (int i = 0; i < numRecords; i++){
+            metrics.recordLatency.record(emitted - completedBatch.arrivalTimes[i]);
+        }
+    }
+
     @Override
     public void initialize(IFunctionHelper functionHelper) throws Exception{
+        LSTMFunctionParameters parameters = new LSTMFunctionParameters(functionHelper);
+
         // Number of words to allow in vector.
         vectorLength = 30;
 
         // Number of records to process at a time.
-        batchSize = 50000;
-
-        System.out.println("Started loading wordvectors");
-        customizedWordVec = new WordVec();
-        customizedWordVec.initialize();
-        System.out.println("Wordvectors initialized");
-
-        System.out.println("Initialization of Neural Net started");
-        File f = new File("/lhome/torstebm/asterixdb-dl4j-sentiment-udf/src/main/java/org/apache/asterix/external/library/dl4j/1m_rnn_customizedWordVec_model.zip");
-        boolean saveUpdater = false;    
-        net = MultiLayerNetwork.load(f, saveUpdater);
-        System.out.println("Neural Net Initialized");
-
-        // TODO: Load ParallelInference model directly to shorten initialize function
-        System.out.println("Initializing Parallel Inference");
-        piModel = new ParallelInference.Builder(net)
-            .inferenceMode(InferenceMode.BATCHED)
-            // max size of batch for BATCHED mode. Set with respect to your environment (i.e. gpu memory)
-            .batchLimit(15000)
-            // set this value to number of available computational devices
-            .workers(2)
-            .build();
-        System.out.println("Parallel inference initialized");
+        int batchSize = parameters.getInt("maxBatchSize", 50000);
+
+        // Number of batches allowed in inference while the next one is being filled, 0 runs inference inline.
+        // Above 0 a flushed batch is only emitted by a later call, which on a slow feed adds up to
+        // another record's wait to the deadline and drops the last batch at deinitialize, so it is off
+        // unless asked for
+        int pipelineDepth = parameters.getInt("pipelineDepth", 0);
+        if (pipelineDepth < 0){
+            throw new IllegalArgumentException("pipelineDepth must not be negative, got " + pipelineDepth);
+        }
 
+        // Group tweets into buckets of this many words and only run as many timesteps as each bucket
+        // needs, reading the sentiment at every tweet's own last word. 0 runs all vectorLength timesteps
+        int lengthBucketWidth = parameters.getInt("lengthBucketWidth", 0);
+        if (lengthBucketWidth < 0){
+            throw new IllegalArgumentException("lengthBucketWidth must not be negative, got " + lengthBucketWidth);
+        }
 
-        // Initialize batching data structures
-        tweetVectorBatch = new double[batchSize][vectorLength];
-        outputRecords = new JRecord[batchSize];
-        batchPointer = 0;
+        // Flush earlier than a full batch once the oldest buffered record has waited maxWaitMillis and
+        // at least minBatchSize records are buffered, so tweets on a slow feed are not held back for
+        // minutes. Tune against the recordLatency metrics
+        int minBatchSize = parameters.getInt("minBatchSize", 1);
+        int maxWaitMillis = parameters.getInt("maxWaitMillis", 5000);
+        if (maxWaitMillis < 0){
+            throw new IllegalArgumentException("maxWaitMillis must not be negative, got " + maxWaitMillis);
+        }
+        flushPolicy = new BatchFlushPolicy(batchSize, minBatchSize, maxWaitMillis, TimeUnit.MILLISECONDS);
+
+        // Seconds between summary log lines of the metrics shared by all instances, 0 for none
+        int metricsLogInterval = parameters.getInt("metricsLogInterval", 0);
 
-        startTime = System.nanoTime();
+        // Network, inference workers and vocabulary are shared by every function instance in the JVM
+        model = SentimentModelRegistry.acquire(parameters.getModelPath(), parameters.getVocabularyPath(),
+                parameters.getInferenceWorkers());
+
+        // Initialize batching data structures
+        metrics = LSTMFunctionMetrics.acquire("LSTMClassifyStream", metricsLogInterval);
+        pipeline = new InferencePipeline(model, pipelineDepth, batchSize, vectorLength, lengthBucketWidth, metrics);
+        currentBatch = pipeline.nextFree();
     }
-}
\ No newline at end of file
+}
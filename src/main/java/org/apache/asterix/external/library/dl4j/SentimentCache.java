@@ -0,0 +1,167 @@
+package org.apache.asterix.external.library.dl4j;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of predicted sentiments keyed by the word-id vector of a tweet.
+ *
+ * For a given read mode the network output only depends on the ids produced by WordVec and the
+ * word count, so retweets and near-identical bot tweets can skip inference entirely. Reading at
+ * the last padded timestep and at the last real word (length bucketing) can disagree on the same
+ * key, so a cache must only ever be filled by one of them; SentimentModel keeps one per mode.
+ * Entries live off-heap in a direct buffer as primitive ints, organized as a 4-way set-associative
+ * table; a full set evicts its least recently used entry. Sets are guarded by striped locks so the
+ * cache can be shared by every function instance using the same model.
+ *
+ * Entry layout: long hash, long lastUsed (0 = empty), int length, int sentiment, vectorLength x int id
+ */
+public class SentimentCache {
+    private static final int WAYS = 4;
+    private static final int STRIPES = 64;
+    private static final int HEADER_BYTES = 24;
+
+    private final int vectorLength;
+    private final int entryBytes;
+    private final int setMask;
+    private final ByteBuffer entries;
+    private final Object[] locks = new Object[STRIPES];
+    private final long[] clocks = new long[STRIPES];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Capacity is rounded up to a power of two number of entries.
+     */
+    public SentimentCache(int capacity, int vectorLength) {
+        int sets = Integer.highestOneBit(Math.max(capacity / WAYS, 1) * 2 - 1);
+        this.vectorLength = vectorLength;
+        this.entryBytes = HEADER_BYTES + vectorLength * 4;
+        this.setMask = sets - 1;
+        this.entries = ByteBuffer.allocateDirect(sets * WAYS * entryBytes);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public int vectorLength() {
+        return vectorLength;
+    }
+
+    public int capacity() {
+        return (setMask + 1) * WAYS;
+    }
+
+    /**
+     * Returns the cached sentiment of the vector in batch[offset, offset + vectorLength), or -1.
+     */
+    public int get(double[] batch, int offset, int length) {
+        long hash = hash(batch, offset, length);
+        int set = (int) hash & setMask;
+        int stripe = set & (STRIPES - 1);
+        synchronized (locks[stripe]) {
+            for (int way = 0; way < WAYS; way++) {
+                int position = (set * WAYS + way) * entryBytes;
+                if (entries.getLong(position + 8) != 0 && entries.getLong(position) == hash
+                        && keyEquals(position, batch, offset, length)) {
+                    entries.putLong(position + 8, ++clocks[stripe]);
+                    hits.incrementAndGet();
+                    return entries.getInt(position + 20);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return -1;
+    }
+
+    public void put(double[] batch, int offset, int length, int sentiment) {
+        long hash = hash(batch, offset, length);
+        int set = (int) hash & setMask;
+        int stripe = set & (STRIPES - 1);
+        synchronized (locks[stripe]) {
+            // Reuse a matching or empty way, otherwise evict the least recently used one
+            int victim = -1;
+            long oldest = Long.MAX_VALUE;
+            for (int way = 0; way < WAYS; way++) {
+                int position = (set * WAYS + way) * entryBytes;
+                long lastUsed = entries.getLong(position + 8);
+                if (lastUsed == 0 || (entries.getLong(position) == hash && keyEquals(position, batch, offset, length))) {
+                    victim = position;
+                    oldest = 0;
+                    break;
+                }
+                if (lastUsed < oldest) {
+                    oldest = lastUsed;
+                    victim = position;
+                }
+            }
+            if (oldest != 0) {
+                evictions.incrementAndGet();
+            }
+            entries.putLong(victim, hash);
+            entries.putLong(victim + 8, ++clocks[stripe]);
+            entries.putInt(victim + 16, length);
+            entries.putInt(victim + 20, sentiment);
+            for (int i = 0; i < vectorLength; i++) {
+                entries.putInt(victim + HEADER_BYTES + i * 4, (int) batch[offset + i]);
+            }
+        }
+    }
+
+    /**
+     * Drops every entry. Counters are kept.
+     */
+    public void clear() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int set = stripe; set <= setMask; set += STRIPES) {
+                    for (int way = 0; way < WAYS; way++) {
+                        entries.putLong((set * WAYS + way) * entryBytes + 8, 0L);
+                    }
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public String summary() {
+        return "hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions();
+    }
+
+    private boolean keyEquals(int position, double[] batch, int offset, int length) {
+        if (entries.getInt(position + 16) != length) {
+            return false;
+        }
+        for (int i = 0; i < vectorLength; i++) {
+            if (entries.getInt(position + HEADER_BYTES + i * 4) != (int) batch[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long hash(double[] batch, int offset, int length) {
+        long hash = 0x9e3779b97f4a7c15L ^ length;
+        for (int i = 0; i < vectorLength; i++) {
+            hash = (hash ^ (long) batch[offset + i]) * 0x100000001b3L;
+        }
+        // Final avalanche so the low bits used for the set index depend on every id
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,290 @@
+package org.apache.asterix.external.library.dl4j;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.asterix.external.library.metrics.LSTMFunctionMetrics;
+import org.bytedeco.javacpp.DoublePointer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.parallelism.ParallelInference;
+import org.nd4j.linalg.api.concurrency.AffinityManager;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * A loaded network, its inference engine and the vocabulary it was trained with.
+ *
+ * Instances are handed out by {@link SentimentModelRegistry} and shared by every function
+ * instance in the JVM, so they must be treated as read-only.
+ */
+public class SentimentModel {
+    private final String modelPath;
+    private final String indexPath;
+    private final WordVec wordVec;
+    private final MultiLayerNetwork net;
+    private final ParallelInference piModel;
+    private final int cacheCapacity;
+    // Sentiments read at the last padded timestep, and at each tweet's last word (length bucketing)
+    private SentimentCache cache;
+    private SentimentCache bucketedCache;
+    // vectorLength and bucketWidth pairs classifyByLength() has been checked against
+    private final Set<Long> checkedBucketings = new HashSet<Long>();
+    private int references;
+
+    SentimentModel(String modelPath, String indexPath, WordVec wordVec, MultiLayerNetwork net, ParallelInference piModel,
+            int cacheCapacity) {
+        this.modelPath = modelPath;
+        this.indexPath = indexPath;
+        this.wordVec = wordVec;
+        this.net = net;
+        this.piModel = piModel;
+        this.cacheCapacity = cacheCapacity;
+    }
+
+    public String getModelPath() {
+        return modelPath;
+    }
+
+    public String getIndexPath() {
+        return indexPath;
+    }
+
+    public WordVec getWordVec() {
+        return wordVec;
+    }
+
+    public MultiLayerNetwork getNet() {
+        return net;
+    }
+
+    public ParallelInference getInference() {
+        return piModel;
+    }
+
+    /**
+     * Result cache for this model and vocabulary, or null if caching is disabled. The cache is tied
+     * to this instance, so loading a different model or vocabulary always starts from an empty one.
+     *
+     * classify() and classifyByLength() read the sentiment at different timesteps and can disagree
+     * on the same word ids, so each has its own cache; pass bucketed = true for classifyByLength().
+     */
+    public synchronized SentimentCache getCache(int vectorLength, boolean bucketed) {
+        if (cacheCapacity <= 0) {
+            return null;
+        }
+        SentimentCache modeCache = bucketed ? bucketedCache : cache;
+        if (modeCache == null) {
+            modeCache = new SentimentCache(cacheCapacity, vectorLength);
+            if (bucketed) {
+                bucketedCache = modeCache;
+            } else {
+                cache = modeCache;
+            }
+        } else if (modeCache.vectorLength() != vectorLength) {
+            throw new IllegalArgumentException("Cache holds vectors of length " + modeCache.vectorLength() + ", not " + vectorLength);
+        }
+        return modeCache;
+    }
+
+    synchronized void invalidateCache() {
+        if (cache != null) {
+            cache.clear();
+            cache = null;
+        }
+        if (bucketedCache != null) {
+            bucketedCache.clear();
+            bucketedCache = null;
+        }
+    }
+
+    /**
+     * Runs the first numRecords rows of a row-major [numRecords x vectorLength] batch of word ids
+     * through the network. Returns one entry per row, 0 meaning positive and 1 negative.
+     * Safe to call from several threads at once.
+     *
+     * The batch is copied into a caller-owned [rows x vectorLength] feature array instead of a new
+     * one, so the same native buffer can be reused for every chunk. features must be a c-ordered
+     * DOUBLE array, and only its first numRecords rows are written, so a small flush costs a small
+     * copy however large the buffer is. Time spent building the input and in the network is
+     * recorded in metrics.
+     */
+    public double[] classify(INDArray features, double[] tweetVectorBatch, int numRecords, int vectorLength,
+            LSTMFunctionMetrics metrics) {
+        if (numRecords == 0) {
+            return new double[0];
+        }
+        long start = System.nanoTime();
+        // Bounded copy of the rows in use, the rows after them are never read. Writing through the
+        // host pointer has to be flagged so a GPU backend syncs the buffer before the forward pass
+        DoublePointer hostBuffer = new DoublePointer(features.data().addressPointer());
+        hostBuffer.put(tweetVectorBatch, 0, numRecords * vectorLength);
+        Nd4j.getAffinityManager().tagLocation(features, AffinityManager.Location.HOST);
+        INDArray rows = numRecords == features.rows() ? features
+                : features.get(NDArrayIndex.interval(0, numRecords), NDArrayIndex.all());
+        long constructed = System.nanoTime();
+        metrics.ndArrayConstruction.record(constructed - start);
+
+        double[] predictedSentiments = classify(rows, vectorLength);
+        metrics.inference.record(System.nanoTime() - constructed);
+        return predictedSentiments;
+    }
+
+    /**
+     * Length-bucketed variant of classify(). Rows are grouped by their number of words, rounded up
+     * to a multiple of bucketWidth, and each group is run with only that many timesteps instead of
+     * all vectorLength. The sentiment is read at each tweet's own last word rather than at the last
+     * padded timestep, and results are returned in the original row order.
+     *
+     * This relies on the recurrent layers being unidirectional, so the output at a timestep does not
+     * depend on the padding after it, and on the network accepting fewer than vectorLength timesteps.
+     * Call checkLengthBucketing() once before using it.
+     */
+    public double[] classifyByLength(double[] tweetVectorBatch, int[] lengths, int numRecords, int vectorLength, int bucketWidth,
+            LSTMFunctionMetrics metrics) {
+        double[] predictedSentiments = new double[numRecords];
+        if (numRecords == 0) {
+            return predictedSentiments;
+        }
+
+        // Counting sort of the row indices by bucket, keeping input order within a bucket
+        int numBuckets = (vectorLength + bucketWidth - 1) / bucketWidth;
+        int[] bucketStarts = new int[numBuckets + 1];
+        for (int i = 0; i < numRecords; i++) {
+            bucketStarts[bucketOf(lengths[i], bucketWidth) + 1]++;
+        }
+        for (int b = 0; b < numBuckets; b++) {
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        int[] order = new int[numRecords];
+        int[] next = Arrays.copyOf(bucketStarts, numBuckets);
+        for (int i = 0; i < numRecords; i++) {
+            order[next[bucketOf(lengths[i], bucketWidth)]++] = i;
+        }
+
+        long constructionTime = 0;
+        long inferenceTime = 0;
+        for (int b = 0; b < numBuckets; b++) {
+            int start = bucketStarts[b];
+            int count = bucketStarts[b + 1] - start;
+            if (count == 0) {
+                continue;
+            }
+            int timesteps = Math.min((b + 1) * bucketWidth, vectorLength);
+            long bucketStart = System.nanoTime();
+
+            // Copy the first timesteps word ids of every row in the bucket
+            double[] bucketData = new double[count * timesteps];
+            for (int k = 0; k < count; k++) {
+                System.arraycopy(tweetVectorBatch, order[start + k] * vectorLength, bucketData, k * timesteps, timesteps);
+            }
+            INDArray features = Nd4j.create(bucketData, new long[]{count, timesteps}, 'c');
+            long constructed = System.nanoTime();
+            constructionTime += constructed - bucketStart;
+
+            // Output is [count x classes x timesteps], pull it on-heap once instead of indexing per row
+            INDArray networkOutput = piModel.output(features);
+            int classes = (int) networkOutput.size(1);
+            double[] probabilities = networkOutput.dup('c').data().asDouble();
+
+            for (int k = 0; k < count; k++) {
+                int row = order[start + k];
+                int lastWord = Math.max(lengths[row], 1) - 1;
+                int base = k * classes * timesteps + lastWord;
+                int best = 0;
+                for (int c = 1; c < classes; c++) {
+                    if (probabilities[base + c * timesteps] > probabilities[base + best * timesteps]) {
+                        best = c;
+                    }
+                }
+                predictedSentiments[row] = best;
+            }
+            inferenceTime += System.nanoTime() - constructed;
+        }
+        metrics.ndArrayConstruction.record(constructionTime);
+        metrics.inference.record(inferenceTime);
+        return predictedSentiments;
+    }
+
+    /**
+     * Checks that classifyByLength() gives the same sentiments as classify() would for this network,
+     * by running a probe tweet at every bucket length and comparing the output at its last timestep
+     * with the output at the same timestep of the full vectorLength run. Fails if the network rejects
+     * the shorter input (e.g. an embedding with a fixed input length) or if the output depends on
+     * later timesteps (e.g. bidirectional layers). Each vectorLength and bucketWidth is only checked once.
+     */
+    public synchronized void checkLengthBucketing(int vectorLength, int bucketWidth) {
+        if (bucketWidth <= 0) {
+            throw new IllegalArgumentException("Bucket width must be positive, got " + bucketWidth);
+        }
+        long key = ((long) vectorLength << 32) | bucketWidth;
+        if (checkedBucketings.contains(key)) {
+            return;
+        }
+
+        // Probe tweet that uses every timestep, with word ids the embedding is sure to know
+        int dictSize = wordVec.getDictSize();
+        double[] probe = new double[vectorLength];
+        for (int t = 0; t < vectorLength; t++) {
+            probe[t] = dictSize > 0 ? 1 + t % dictSize : 0;
+        }
+        double[] full = probeOutput(probe, vectorLength);
+        int classes = full.length / vectorLength;
+
+        for (int timesteps = bucketWidth; ; timesteps += bucketWidth) {
+            timesteps = Math.min(timesteps, vectorLength);
+            double[] bucketed;
+            try {
+                bucketed = probeOutput(Arrays.copyOf(probe, timesteps), timesteps);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("lengthBucketWidth=" + bucketWidth + " is not supported by "
+                        + modelPath + ": the network does not accept " + timesteps + " of " + vectorLength + " timesteps", e);
+            }
+            for (int c = 0; c < classes; c++) {
+                double expected = full[c * vectorLength + timesteps - 1];
+                double actual = bucketed[c * timesteps + timesteps - 1];
+                if (Math.abs(expected - actual) > 1e-4) {
+                    throw new IllegalArgumentException("lengthBucketWidth=" + bucketWidth + " is not supported by "
+                            + modelPath + ": its output at timestep " + timesteps + " depends on the timesteps after it,"
+                            + " so the recurrent layers are not unidirectional");
+                }
+            }
+            if (timesteps == vectorLength) {
+                break;
+            }
+        }
+        checkedBucketings.add(key);
+    }
+
+    /**
+     * Network output for a single row of word ids, as a row-major [classes x timesteps] array.
+     */
+    private double[] probeOutput(double[] wordIds, int timesteps) {
+        INDArray features = Nd4j.create(wordIds, new long[]{1, timesteps}, 'c');
+        return piModel.output(features).dup('c').data().asDouble();
+    }
+
+    private static int bucketOf(int length, int bucketWidth) {
+        return (Math.max(length, 1) - 1) / bucketWidth;
+    }
+
+    private double[] classify(INDArray features, int vectorLength) {
+        // Run batch through the parallel inference model of the recurrent neural net
+        INDArray networkOutput = piModel.output(features);
+
+        // Sentiment probabilities will be probabilities at last iteration of recurrence
+        INDArray probabilitiesAtLastWord = networkOutput.get(NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.point(vectorLength-1));
+
+        // Convert to double array with an entry of 1 corresponding to positive and 0 to negative
+        return probabilitiesAtLastWord.argMax(1).toDoubleVector();
+    }
+
+    int retain() {
+        return ++references;
+    }
+
+    int release() {
+        return --references;
+    }
+}
@@ -0,0 +1,81 @@
+package org.apache.asterix.external.library.dl4j;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.parallelism.ParallelInference;
+import org.deeplearning4j.parallelism.inference.InferenceMode;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * JVM-wide, reference-counted registry of loaded sentiment models.
+ *
+ * AsterixDB creates one function instance per partition, and all three LSTM functions use the
+ * same network and vocabulary. Instead of each instance loading its own copy, they acquire the
+ * shared model in initialize() and release it in deinitialize(); the first acquire loads it and
+ * the last release shuts the inference workers down.
+ */
+public class SentimentModelRegistry {
+    // Replace with path to your own trained model
+    public static final String defaultModelPath = "/lhome/torstebm/asterixdb-dl4j-sentiment-udf/src/main/java/org/apache/asterix/external/library/dl4j/1m_rnn_customizedWordVec_model.zip";
+
+    // max size of batch for BATCHED mode. Set with respect to your environment (i.e. gpu memory)
+    private static final int batchLimit = 15000;
+
+    // Number of distinct tweets whose predicted sentiment is kept per model, 0 disables the cache
+    private static final int cacheCapacity = 1 << 16;
+
+    private static final Map<String, SentimentModel> models = new HashMap<String, SentimentModel>();
+
+    private SentimentModelRegistry() {}
+
+    /**
+     * Every ParallelInference worker holds its own copy of the network, so workers should match the
+     * computational devices. 0 picks one per device (one per GPU, a single one on CPU, where ND4J
+     * already spreads each op over the cores). The count of whoever loads the model first wins.
+     */
+    public static synchronized SentimentModel acquire(String modelPath, String indexPath, int workers) throws Exception {
+        String key = modelPath + File.pathSeparator + indexPath;
+        SentimentModel model = models.get(key);
+        if (model == null) {
+            model = load(modelPath, indexPath, workers > 0 ? workers : Nd4j.getAffinityManager().getNumberOfDevices());
+            models.put(key, model);
+        }
+        model.retain();
+        return model;
+    }
+
+    public static synchronized void release(SentimentModel model) {
+        if (model == null || model.release() > 0) {
+            return;
+        }
+        models.remove(model.getModelPath() + File.pathSeparator + model.getIndexPath());
+        model.invalidateCache();
+        model.getInference().shutdown();
+        System.out.println("Released sentiment model " + model.getModelPath());
+    }
+
+    private static SentimentModel load(String modelPath, String indexPath, int workers) throws Exception {
+        System.out.println("Started loading wordvectors");
+        WordVec wordVec = new WordVec();
+        wordVec.initialize(indexPath);
+        System.out.println("Wordvectors initialized");
+
+        System.out.println("Initialization of Neural Net started");
+        boolean saveUpdater = false;
+        MultiLayerNetwork net = MultiLayerNetwork.load(new File(modelPath), saveUpdater);
+        System.out.println("Neural Net Initialized");
+
+        System.out.println("Initializing Parallel Inference with " + workers + " workers");
+        ParallelInference piModel = new ParallelInference.Builder(net)
+            .inferenceMode(InferenceMode.BATCHED)
+            .batchLimit(batchLimit)
+            .workers(workers)
+            .build();
+        System.out.println("Parallel inference initialized");
+
+        return new SentimentModel(modelPath, indexPath, wordVec, net, piModel, cacheCapacity);
+    }
+}
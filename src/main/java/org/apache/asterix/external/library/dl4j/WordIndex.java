@@ -0,0 +1,202 @@
+package org.apache.asterix.external.library.dl4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * Read-only, memory-mapped word-to-id table produced offline by {@link WordIndexBuilder}.
+ *
+ * The file is an open-addressing hash table (FNV-1a, linear probing) followed by a blob of
+ * length-prefixed ASCII keys. Lookups only do absolute reads on the mapping, so nothing but
+ * the pages actually touched is brought in, and every JVM on a node shares the same page cache.
+ *
+ * Layout (big-endian):
+ *   int magic, int version, int size, int capacity
+ *   capacity x { int hash, int id, int keyOffset }   (id 0 marks an empty slot)
+ *   keys: { unsigned short length, length x byte }
+ */
+public class WordIndex {
+    public static final int MAGIC = 0x57564958; // "WVIX"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int SLOT_BYTES = 12;
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final int mask;
+    private final int keysStart;
+
+    private WordIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a word index file (bad magic or version)");
+        }
+        this.size = buffer.getInt(8);
+        int capacity = buffer.getInt(12);
+        this.mask = capacity - 1;
+        this.keysStart = HEADER_BYTES + capacity * SLOT_BYTES;
+    }
+
+    public static WordIndex open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            return new WordIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the frequency rank of the word (1 = most frequent), or 0 if it is not in the vocabulary.
+     */
+    public int lookup(String word) {
+        int hash = hashInit();
+        for (int i = 0; i < word.length(); i++) {
+            hash = hashStep(hash, word.charAt(i));
+        }
+        int slot = hash & mask;
+        while (true) {
+            int position = HEADER_BYTES + slot * SLOT_BYTES;
+            int id = buffer.getInt(position + 4);
+            if (id == 0) {
+                return 0;
+            }
+            if (buffer.getInt(position) == hash && keyEquals(buffer.getInt(position + 8), word)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Allocation-free lookup of a word that is still embedded in raw text. The word consists of the
+     * characters in [start, end) of the text that survive {@link #fold(char)}; hash and length must
+     * have been computed over those folded characters.
+     */
+    public int lookup(CharSequence text, int start, int end, int hash, int length) {
+        int slot = hash & mask;
+        while (true) {
+            int position = HEADER_BYTES + slot * SLOT_BYTES;
+            int id = buffer.getInt(position + 4);
+            if (id == 0) {
+                return 0;
+            }
+            if (buffer.getInt(position) == hash && keyEquals(buffer.getInt(position + 8), text, start, end, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int keyOffset, String word) {
+        int position = keysStart + keyOffset;
+        int length = buffer.getChar(position);
+        if (length != word.length()) {
+            return false;
+        }
+        position += 2;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(position + i) != (byte) word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean keyEquals(int keyOffset, CharSequence text, int start, int end, int length) {
+        int position = keysStart + keyOffset;
+        if (buffer.getChar(position) != length) {
+            return false;
+        }
+        position += 2;
+        for (int i = start; i < end; i++) {
+            char c = fold(text.charAt(i));
+            if (c == 0) {
+                continue;
+            }
+            if (buffer.get(position++) != (byte) c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Normalizes a character the way the vocabulary was built: ASCII letters are lowercased,
+     * everything else is dropped (returned as 0).
+     */
+    public static char fold(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return 0;
+    }
+
+    public static int hashInit() {
+        return FNV_OFFSET_BASIS;
+    }
+
+    public static int hashStep(int hash, char c) {
+        return (hash ^ c) * FNV_PRIME;
+    }
+
+    /**
+     * Writes an index for the given word-to-id mapping. Words are expected to be normalized
+     * the same way as at lookup time, i.e. lowercase ASCII letters only.
+     */
+    public static void write(Map<String, Integer> wordIds, File file) throws IOException {
+        int size = wordIds.size();
+        int capacity = Integer.highestOneBit(Math.max(size * 2, 2) - 1) << 1;
+        int mask = capacity - 1;
+
+        ByteBuffer slots = ByteBuffer.allocate(capacity * SLOT_BYTES);
+        ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+        DataOutputStream keys = new DataOutputStream(keyBytes);
+
+        for (Map.Entry<String, Integer> entry : wordIds.entrySet()) {
+            String word = entry.getKey();
+            int hash = hashInit();
+            for (int i = 0; i < word.length(); i++) {
+                hash = hashStep(hash, word.charAt(i));
+            }
+            int slot = hash & mask;
+            while (slots.getInt(slot * SLOT_BYTES + 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.putInt(slot * SLOT_BYTES, hash);
+            slots.putInt(slot * SLOT_BYTES + 4, entry.getValue());
+            slots.putInt(slot * SLOT_BYTES + 8, keys.size());
+
+            keys.writeChar(word.length());
+            for (int i = 0; i < word.length(); i++) {
+                keys.writeByte(word.charAt(i));
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(capacity);
+            out.write(slots.array());
+            keyBytes.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.apache.asterix.external.library.dl4j;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+
+/**
+ * Offline build step for the vocabulary index read by {@link WordVec}.
+ *
+ * Usage: WordIndexBuilder [training.csv] [wordvec.idx]
+ *
+ * Both arguments default to the paths configured in WordVec. The index only has to be
+ * rebuilt when the training data changes, and the same file can be shared by every node.
+ */
+public class WordIndexBuilder {
+
+    public static void main(String[] args) throws Exception {
+        String csvFile = args.length > 0 ? args[0] : WordVec.trainingCsvFile;
+        String indexFile = args.length > 1 ? args[1] : WordVec.indexFile;
+
+        long startTime = System.nanoTime();
+        LinkedHashMap<String, Integer> wordIds = WordVec.buildVocabulary(csvFile);
+        WordIndex.write(wordIds, new File(indexFile));
+
+        long totalTime = (System.nanoTime() - startTime);
+        System.out.println("Wrote " + wordIds.size() + " words to " + indexFile + " in " + totalTime + " nanoseconds");
+    }
+}
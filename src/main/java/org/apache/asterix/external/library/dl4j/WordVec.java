@@ -7,8 +7,10 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.io.Reader;
 import java.io.InputStreamReader;
@@ -16,22 +18,38 @@ import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 
 public class WordVec {
-    private HashMap<String, Double> wordToNumber = new HashMap<String, Double>();
+    private WordIndex index;
+    private int emptyWordId;
     
     // Replace with path to your own copy of the sentiment140 training data
     // http://help.sentiment140.com/for-students
-    private static final String trainingCsvFile = "/lhome/torstebm/deeplearning4j-examples/dl4j-examples/src/main/java/org/deeplearning4j/examples/recurrent/word2vecsentiment/training.csv";
+    public static final String trainingCsvFile = "/lhome/torstebm/deeplearning4j-examples/dl4j-examples/src/main/java/org/deeplearning4j/examples/recurrent/word2vecsentiment/training.csv";
+
+    // Vocabulary index built once from the training data by WordIndexBuilder
+    public static final String indexFile = "/lhome/torstebm/asterixdb-dl4j-sentiment-udf/src/main/java/org/apache/asterix/external/library/dl4j/wordvec.idx";
     
     public int getDictSize(){
-        return this.wordToNumber.size();
+        return this.index.size();
+    }
+
+    public void initialize() throws IOException {
+        initialize(indexFile);
+    }
+
+    public void initialize(String indexPath) throws IOException {
+        index = WordIndex.open(new File(indexPath));
+        emptyWordId = index.lookup("");
     }
-    public HashMap<String, Double> initialize(){
+
+    // Ranks every word in the training data by frequency, 1 being the most frequent.
+    // Only used offline by WordIndexBuilder, the UDFs read the resulting index instead.
+    public static LinkedHashMap<String, Integer> buildVocabulary(String csvFile){
         HashMap<String, Double> wordOccurences = new HashMap<String, Double>();
 
         try {
             CsvParserSettings settings = new CsvParserSettings();
             CsvParser parser = new CsvParser(settings);
-            Reader reader = getReader(trainingCsvFile);
+            Reader reader = getReader(csvFile);
             parser.beginParsing(reader);
 
             String[] tweet;
@@ -59,34 +77,89 @@ public class WordVec {
         } 
 
         wordOccurences = sortByValue(wordOccurences);
-        double num = 1.0;
+        LinkedHashMap<String, Integer> wordIds = new LinkedHashMap<String, Integer>();
+        int num = 1;
         for (Map.Entry<String, Double> entry : wordOccurences.entrySet()) {
-            wordToNumber.put(entry.getKey(), num);
+            wordIds.put(entry.getKey(), num);
             num++;
 		}
 
-        return wordToNumber;
+        return wordIds;
     }
 
     public double wordToNumber(String c){
-        if (wordToNumber.get(c) != null){
-            return wordToNumber.get(c);
-        }
-        return 0.0;
+        return index.lookup(c);
     }
 
     public double[] sentenceToWordVec(String s, int vectorLength){
         double[] vector = new double[vectorLength];
-        String[] words = s.replaceAll("[^a-zA-Z ]", "").toLowerCase().split("\\s+");
+        sentenceToWordVec(s, vector, 0, vectorLength);
+        return vector;
+    }
 
-        for (int i = 0; i < vectorLength; i++){
-            if (i < words.length){
-                vector[i] = wordToNumber(words[i]);
-            } else {
-                vector[i] = 0.0;
+    /**
+     * Writes the word ids of a sentence into batch[offset, offset + vectorLength), zero-padding the rest.
+     *
+     * Single pass over the characters with no per-word allocation. Tokenizes exactly like
+     * replaceAll("[^a-zA-Z ]", "").toLowerCase().split("\\s+"), which is how the vocabulary was built,
+     * including the empty leading token split produces for sentences starting with a space.
+     *
+     * Returns the number of words written.
+     */
+    public int sentenceToWordVec(CharSequence s, double[] batch, int offset, int vectorLength){
+        int words = 0;
+        boolean keptAny = false;
+        boolean leadingSpace = false;
+        int wordStart = -1;
+        int wordLength = 0;
+        int hash = WordIndex.hashInit();
+
+        int length = s.length();
+        for (int i = 0; i < length && words < vectorLength; i++){
+            char c = s.charAt(i);
+            if (c == ' '){
+                if (!keptAny){
+                    leadingSpace = true;
+                }
+                keptAny = true;
+                if (wordStart >= 0){
+                    batch[offset + words++] = index.lookup(s, wordStart, i, hash, wordLength);
+                    wordStart = -1;
+                }
+                continue;
+            }
+            char folded = WordIndex.fold(c);
+            if (folded == 0){
+                continue;
+            }
+            keptAny = true;
+            if (wordStart < 0){
+                if (leadingSpace){
+                    batch[offset + words++] = emptyWordId;
+                    leadingSpace = false;
+                    if (words >= vectorLength){
+                        break;
+                    }
+                }
+                wordStart = i;
+                wordLength = 0;
+                hash = WordIndex.hashInit();
             }
+            hash = WordIndex.hashStep(hash, folded);
+            wordLength++;
         }
-        return vector;
+        if (words < vectorLength){
+            if (wordStart >= 0){
+                batch[offset + words++] = index.lookup(s, wordStart, length, hash, wordLength);
+            } else if (!keptAny){
+                batch[offset + words++] = emptyWordId;
+            }
+        }
+
+        for (int i = words; i < vectorLength; i++){
+            batch[offset + i] = 0.0;
+        }
+        return words;
     }
 
 
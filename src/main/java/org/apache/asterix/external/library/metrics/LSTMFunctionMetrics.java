@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.asterix.external.library.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.asterix.external.library.dl4j.SentimentCache;
+import org.bytedeco.javacpp.Pointer;
+import org.nd4j.linalg.api.memory.AllocationsTracker;
+import org.nd4j.linalg.api.memory.enums.AllocationKind;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Per stage latencies, counters and memory gauges of one LSTM function, shared by all its
+ * instances in the JVM and published over JMX as
+ * org.apache.asterix.external.library:type=LSTMFunction,name=&lt;function&gt;[,stage=&lt;stage&gt;].
+ *
+ * Recording is lock-free and allocation-free so it can stay on the hot path. Like the models,
+ * instances are reference counted: the first acquire registers the MBeans and, if asked for,
+ * starts a summary log line every logIntervalSeconds; the last release undoes both.
+ */
+public class LSTMFunctionMetrics implements LSTMFunctionMetricsMBean {
+    private static final String DOMAIN = "org.apache.asterix.external.library";
+
+    private static final Map<String, LSTMFunctionMetrics> metrics = new HashMap<String, LSTMFunctionMetrics>();
+
+    // Text to word ids and cache lookup, per record
+    public final LatencyHistogram vectorization = new LatencyHistogram();
+    // Copying word ids into the network's input array, per batch
+    public final LatencyHistogram ndArrayConstruction = new LatencyHistogram();
+    // Network forward pass and reading out the predicted class, per batch
+    public final LatencyHistogram inference = new LatencyHistogram();
+    // Writing sentiments into the records and building the function result, per call that emits
+    public final LatencyHistogram resultAssembly = new LatencyHistogram();
+    // Arrival to emission, per record
+    public final LatencyHistogram recordLatency = new LatencyHistogram();
+
+    private final String name;
+    private final LongAdder records = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder words = new LongAdder();
+    private final LongAdder unknownWords = new LongAdder();
+    private final LongAdder batchSlots = new LongAdder();
+    private final LongAdder filledBatchSlots = new LongAdder();
+    private volatile long startTime = System.nanoTime();
+    private volatile SentimentCache cache;
+
+    private int references;
+    private ScheduledExecutorService logger;
+    private long lastLoggedRecords;
+    private long lastLoggedTime;
+
+    private LSTMFunctionMetrics(String name) {
+        this.name = name;
+    }
+
+    public static synchronized LSTMFunctionMetrics acquire(String name, int logIntervalSeconds) {
+        LSTMFunctionMetrics functionMetrics = metrics.get(name);
+        if (functionMetrics == null) {
+            functionMetrics = new LSTMFunctionMetrics(name);
+            functionMetrics.register();
+            if (logIntervalSeconds > 0) {
+                functionMetrics.startLogging(logIntervalSeconds);
+            }
+            metrics.put(name, functionMetrics);
+        }
+        functionMetrics.references++;
+        return functionMetrics;
+    }
+
+    public static synchronized void release(LSTMFunctionMetrics functionMetrics) {
+        if (functionMetrics == null || --functionMetrics.references > 0) {
+            return;
+        }
+        metrics.remove(functionMetrics.name);
+        if (functionMetrics.logger != null) {
+            functionMetrics.logger.shutdownNow();
+            System.out.println(functionMetrics.getSummary());
+        }
+        functionMetrics.unregister();
+        functionMetrics.cache = null;
+    }
+
+    /**
+     * Reports hit, miss and eviction counts of the model's cache, which are shared with every function using the model.
+     */
+    public void setCache(SentimentCache cache) {
+        this.cache = cache;
+    }
+
+    public void recordVectorization(long nanos, int recordWords, int recordUnknownWords) {
+        vectorization.record(nanos);
+        records.increment();
+        words.add(recordWords);
+        unknownWords.add(recordUnknownWords);
+    }
+
+    public void recordBatch(int size, int capacity) {
+        batches.increment();
+        filledBatchSlots.add(size);
+        batchSlots.add(capacity);
+    }
+
+    @Override
+    public long getRecords() {
+        return records.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed <= 0 ? 0.0 : getRecords() * 1e9 / elapsed;
+    }
+
+    @Override
+    public long getWords() {
+        return words.sum();
+    }
+
+    @Override
+    public long getUnknownWords() {
+        return unknownWords.sum();
+    }
+
+    @Override
+    public double getUnknownWordRate() {
+        long total = words.sum();
+        return total == 0 ? 0.0 : (double) unknownWords.sum() / total;
+    }
+
+    @Override
+    public double getBatchFillRatio() {
+        long slots = batchSlots.sum();
+        return slots == 0 ? 0.0 : (double) filledBatchSlots.sum() / slots;
+    }
+
+    @Override
+    public long getCacheHits() {
+        SentimentCache current = cache;
+        return current == null ? 0 : current.getHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        SentimentCache current = cache;
+        return current == null ? 0 : current.getMisses();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        SentimentCache current = cache;
+        return current == null ? 0 : current.getEvictions();
+    }
+
+    /**
+     * Off-heap memory currently held through JavaCPP, which backs every ND4J buffer on the host.
+     */
+    @Override
+    public long getOffHeapBytes() {
+        return Pointer.totalBytes();
+    }
+
+    @Override
+    public long getMaxOffHeapBytes() {
+        return Pointer.maxBytes();
+    }
+
+    /**
+     * Memory allocated by ND4J workspaces on all devices, including those of the inference workers.
+     */
+    @Override
+    public long getWorkspaceBytes() {
+        long bytes = 0;
+        int devices = Nd4j.getAffinityManager().getNumberOfDevices();
+        for (int device = 0; device < devices; device++) {
+            bytes += AllocationsTracker.getInstance().bytesOnDevice(AllocationKind.WORKSPACE, device);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String getSummary() {
+        return name + ": records=" + getRecords() + " (" + (long) getRecordsPerSecond() + "/s) batches=" + getBatches()
+                + " fill=" + percent(getBatchFillRatio()) + " unknownWords=" + percent(getUnknownWordRate())
+                + " cacheHits=" + getCacheHits() + " cacheMisses=" + getCacheMisses()
+                + " cacheEvictions=" + getCacheEvictions()
+                + ", vectorization " + vectorization.summary() + ", ndarray " + ndArrayConstruction.summary()
+                + ", inference " + inference.summary() + ", assembly " + resultAssembly.summary()
+                + ", record latency " + recordLatency.summary()
+                + ", offHeap=" + (getOffHeapBytes() >> 20) + "MB workspaces=" + (getWorkspaceBytes() >> 20) + "MB";
+    }
+
+    @Override
+    public void reset() {
+        vectorization.reset();
+        ndArrayConstruction.reset();
+        inference.reset();
+        resultAssembly.reset();
+        recordLatency.reset();
+        records.reset();
+        batches.reset();
+        words.reset();
+        unknownWords.reset();
+        batchSlots.reset();
+        filledBatchSlots.reset();
+        startTime = System.nanoTime();
+    }
+
+    private void startLogging(int logIntervalSeconds) {
+        logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lstm-sentiment-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lastLoggedTime = System.nanoTime();
+        logger.scheduleAtFixedRate(this::log, logIntervalSeconds, logIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void log() {
+        // Throughput over the last interval rather than since start
+        long now = System.nanoTime();
+        long total = getRecords();
+        long interval = (long) ((total - lastLoggedRecords) * 1e9 / Math.max(now - lastLoggedTime, 1));
+        lastLoggedRecords = total;
+        lastLoggedTime = now;
+        System.out.println(getSummary() + ", last interval " + interval + " records/s");
+    }
+
+    private void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, objectName(null), this);
+            register(server, objectName("vectorization"), vectorization);
+            register(server, objectName("ndArrayConstruction"), ndArrayConstruction);
+            register(server, objectName("inference"), inference);
+            register(server, objectName("resultAssembly"), resultAssembly);
+            register(server, objectName("recordLatency"), recordLatency);
+        } catch (JMException e) {
+            // Metrics keep being recorded, they are just not visible over JMX
+            System.out.println("Could not register metrics of " + name + " over JMX: " + e);
+        }
+    }
+
+    private static void register(MBeanServer server, ObjectName objectName, Object bean) throws JMException {
+        // A library reloaded in a new class loader leaves the old beans behind, replace them
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(bean, objectName);
+    }
+
+    private void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String[] stages = { null, "vectorization", "ndArrayConstruction", "inference", "resultAssembly", "recordLatency" };
+        for (String stage : stages) {
+            try {
+                ObjectName objectName = objectName(stage);
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                System.out.println("Could not unregister metrics of " + name + ": " + e);
+            }
+        }
+    }
+
+    private ObjectName objectName(String stage) throws JMException {
+        String objectName = DOMAIN + ":type=LSTMFunction,name=" + name;
+        return new ObjectName(stage == null ? objectName : objectName + ",stage=" + stage);
+    }
+
+    private static String percent(double ratio) {
+        return String.format("%.1f%%", ratio * 100);
+    }
+}
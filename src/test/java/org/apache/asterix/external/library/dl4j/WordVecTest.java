@@ -0,0 +1,144 @@
+package org.apache.asterix.external.library.dl4j;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the single-pass tokenizer in WordVec produces the same word ids as the regex the
+ * vocabulary was built with, and that a vocabulary survives a WordIndex write and open.
+ */
+public class WordVecTest {
+    private static final int VECTOR_LENGTH = 30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LinkedHashMap<String, Integer> wordIds;
+    private WordIndex index;
+    private WordVec wordVec;
+
+    @Before
+    public void setUp() throws IOException {
+        // Ranked like buildVocabulary(), including the empty token split() yields for a leading space
+        wordIds = new LinkedHashMap<String, Integer>();
+        for (String word : new String[] { "i", "love", "this", "", "hello", "world", "dont", "ab", "caf", "au",
+                "lait", "nave", "nicode" }) {
+            wordIds.put(word, wordIds.size() + 1);
+        }
+        File indexFile = folder.newFile("wordvec.idx");
+        WordIndex.write(wordIds, indexFile);
+        index = WordIndex.open(indexFile);
+        wordVec = new WordVec();
+        wordVec.initialize(indexFile.getPath());
+    }
+
+    @Test
+    public void indexRoundTrip() {
+        assertEquals(wordIds.size(), index.size());
+        for (Map.Entry<String, Integer> entry : wordIds.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().intValue(), index.lookup(entry.getKey()));
+        }
+        assertEquals(0, index.lookup("unknown"));
+        assertEquals(0, index.lookup("hell"));
+        assertEquals(0, index.lookup("helloo"));
+    }
+
+    @Test
+    public void emptyString() {
+        assertSameAsRegex("");
+    }
+
+    @Test
+    public void spacesOnly() {
+        assertSameAsRegex(" ");
+        assertSameAsRegex("    ");
+    }
+
+    @Test
+    public void leadingSpace() {
+        assertSameAsRegex(" hello world");
+        assertSameAsRegex("   I love this");
+        assertSameAsRegex("hello  world ");
+    }
+
+    @Test
+    public void punctuationOnly() {
+        assertSameAsRegex("!!!");
+        assertSameAsRegex("... ?! :)");
+        assertSameAsRegex(" 123 #@");
+    }
+
+    @Test
+    public void mixedCaseAndPunctuation() {
+        assertSameAsRegex("I LOVE this!!! Don't @hello, World.");
+    }
+
+    @Test
+    public void tabsAndNewlines() {
+        assertSameAsRegex("a\tb");
+        assertSameAsRegex("hello\nworld");
+        assertSameAsRegex("\thello world\r\n");
+        assertSameAsRegex("\n\t");
+    }
+
+    @Test
+    public void nonAsciiLetters() {
+        assertSameAsRegex("caf\u00e9 au lait");
+        assertSameAsRegex("na\u00efve \u00dcn\u00efcode");
+        assertSameAsRegex("\u00e9\u00e8 \u212a \u0130");
+    }
+
+    @Test
+    public void truncatedAtVectorLength() {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < VECTOR_LENGTH + 10; i++) {
+            words.append(i % 2 == 0 ? "hello " : "world ");
+        }
+        assertSameAsRegex(words.toString());
+        assertSameAsRegex(" " + words);
+
+        // The leading empty token pushes the last word out
+        StringBuilder exactlyFull = new StringBuilder();
+        for (int i = 0; i < VECTOR_LENGTH; i++) {
+            exactlyFull.append(" love");
+        }
+        assertSameAsRegex(exactlyFull.toString());
+        assertSameAsRegex(exactlyFull.substring(1));
+    }
+
+    private void assertSameAsRegex(String sentence) {
+        String[] tokens = sentence.replaceAll("[^a-zA-Z ]", "").toLowerCase().split("\\s+");
+        int expectedWords = Math.min(tokens.length, VECTOR_LENGTH);
+        double[] expected = new double[VECTOR_LENGTH];
+        for (int i = 0; i < expectedWords; i++) {
+            expected[i] = index.lookup(tokens[i]);
+        }
+
+        // Write into the middle of a dirty batch to check both the padding and the bounds
+        int offset = 7;
+        double[] batch = new double[offset + VECTOR_LENGTH + 3];
+        Arrays.fill(batch, -1.0);
+        int words = wordVec.sentenceToWordVec(sentence, batch, offset, VECTOR_LENGTH);
+
+        String message = "\"" + sentence + "\"";
+        assertEquals(message, expectedWords, words);
+        assertArrayEquals(message, expected, Arrays.copyOfRange(batch, offset, offset + VECTOR_LENGTH), 0.0);
+        for (int i = 0; i < offset; i++) {
+            assertEquals(message, -1.0, batch[i], 0.0);
+        }
+        for (int i = offset + VECTOR_LENGTH; i < batch.length; i++) {
+            assertEquals(message, -1.0, batch[i], 0.0);
+        }
+    }
+}